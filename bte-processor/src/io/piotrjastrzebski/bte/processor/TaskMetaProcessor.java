@@ -0,0 +1,356 @@
+package io.piotrjastrzebski.bte.processor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Generates {@code io.piotrjastrzebski.bte.model.tasks.TaskMeta} for task classes, so bte doesn't need reflection to inspect them
+ *
+ * Classes that declare {@code TaskAttribute} fields or are annotated with {@code TaskConstraint} or {@code TaskComment} get
+ * a {@code <TaskClass>$$TaskMeta} class in the same package. Only public fields are used, same as reflection in bte.
+ * Classes that can't be accessed from their package, abstract classes and inner classes are skipped.
+ */
+@SupportedAnnotationTypes({
+	TaskMetaProcessor.TASK_ATTRIBUTE,
+	TaskMetaProcessor.TASK_CONSTRAINT,
+	TaskMetaProcessor.TASK_COMMENT
+})
+public class TaskMetaProcessor extends AbstractProcessor {
+	static final String TASK_ATTRIBUTE = "com.badlogic.gdx.ai.btree.annotation.TaskAttribute";
+	static final String TASK_CONSTRAINT = "com.badlogic.gdx.ai.btree.annotation.TaskConstraint";
+	static final String TASK_COMMENT = "io.piotrjastrzebski.bte.TaskComment";
+	static final String SUFFIX = "$$TaskMeta";
+
+	private Elements elements;
+	private Types types;
+	private Filer filer;
+	private Messager messager;
+	// classes are generated once, annotated elements can show up in multiple rounds
+	private final Set<String> generated = new HashSet<>();
+
+	@Override public synchronized void init (ProcessingEnvironment processingEnv) {
+		super.init(processingEnv);
+		elements = processingEnv.getElementUtils();
+		types = processingEnv.getTypeUtils();
+		filer = processingEnv.getFiler();
+		messager = processingEnv.getMessager();
+	}
+
+	@Override public SourceVersion getSupportedSourceVersion () {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override public boolean process (Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+		Set<TypeElement> tasks = new LinkedHashSet<>();
+		for (TypeElement annotation : annotations) {
+			for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+				if (element.getKind() == ElementKind.CLASS) {
+					tasks.add((TypeElement)element);
+				} else if (element.getKind() == ElementKind.FIELD) {
+					tasks.add((TypeElement)element.getEnclosingElement());
+				}
+			}
+		}
+		for (TypeElement task : tasks) {
+			String name = elements.getBinaryName(task).toString();
+			if (!generated.add(name) || !isSupported(task))
+				continue;
+			try {
+				write(task);
+			} catch (IOException e) {
+				messager.printMessage(Diagnostic.Kind.ERROR, "Failed to generate task meta: " + e.getMessage(), task);
+			}
+		}
+		// other processors may want these annotations too
+		return false;
+	}
+
+	private boolean isSupported (TypeElement task) {
+		Set<Modifier> modifiers = task.getModifiers();
+		if (modifiers.contains(Modifier.ABSTRACT) || modifiers.contains(Modifier.PRIVATE))
+			return false;
+		// generated class must be able to cast to the task class
+		Element element = task;
+		while (element.getKind() == ElementKind.CLASS) {
+			TypeElement type = (TypeElement)element;
+			if (type.getModifiers().contains(Modifier.PRIVATE))
+				return false;
+			if (type.getNestingKind() == NestingKind.MEMBER && !type.getModifiers().contains(Modifier.STATIC))
+				return false;
+			if (type.getNestingKind() == NestingKind.LOCAL || type.getNestingKind() == NestingKind.ANONYMOUS)
+				return false;
+			element = element.getEnclosingElement();
+		}
+		return true;
+	}
+
+	private void write (TypeElement task) throws IOException {
+		PackageElement pkg = elements.getPackageOf(task);
+		String packageName = pkg.isUnnamed() ? "" : pkg.getQualifiedName().toString();
+		String binaryName = elements.getBinaryName(task).toString();
+		String simpleName = (packageName.isEmpty() ? binaryName : binaryName.substring(packageName.length() + 1)) + SUFFIX;
+		String taskName = types.erasure(task.asType()).toString();
+
+		List<VariableElement> fields = findAttributes(task);
+		int minChildren = -1;
+		int maxChildren = -1;
+		AnnotationMirror constraint = findConstraint(task);
+		if (constraint != null) {
+			minChildren = getInt(constraint, "minChildren");
+			maxChildren = getInt(constraint, "maxChildren");
+		}
+		String comment = null;
+		AnnotationMirror classComment = getAnnotation(task, TASK_COMMENT);
+		if (classComment != null) {
+			comment = getString(classComment, "value");
+			if (comment.isEmpty()) {
+				comment = null;
+			}
+		}
+
+		StringBuilder sb = new StringBuilder();
+		if (!packageName.isEmpty()) {
+			sb.append("package ").append(packageName).append(";\n\n");
+		}
+		sb.append("import com.badlogic.gdx.ai.btree.Task;\n");
+		sb.append("import io.piotrjastrzebski.bte.model.tasks.TaskMeta;\n\n");
+		sb.append("/**\n * Generated by ").append(TaskMetaProcessor.class.getSimpleName()).append(" for {@link ")
+			.append(taskName).append("}, do not edit\n */\n");
+		sb.append("@SuppressWarnings({\"rawtypes\", \"unchecked\"})\n");
+		sb.append("public final class ").append(simpleName).append(" implements TaskMeta {\n");
+
+		StringBuilder fieldNames = new StringBuilder();
+		StringBuilder names = new StringBuilder();
+		StringBuilder typeNames = new StringBuilder();
+		StringBuilder required = new StringBuilder();
+		StringBuilder comments = new StringBuilder();
+		StringBuilder skipNames = new StringBuilder();
+		for (int i = 0; i < fields.size(); i++) {
+			VariableElement field = fields.get(i);
+			String sep = i > 0 ? ", " : "";
+			AnnotationMirror attribute = getAnnotation(field, TASK_ATTRIBUTE);
+			String name = getString(attribute, "name");
+			if (name.isEmpty()) {
+				name = field.getSimpleName().toString();
+			}
+			AnnotationMirror fieldComment = getAnnotation(field, TASK_COMMENT);
+			fieldNames.append(sep).append(literal(field.getSimpleName().toString()));
+			names.append(sep).append(literal(name));
+			typeNames.append(sep).append(types.erasure(field.asType()).toString()).append(".class");
+			required.append(sep).append(getBoolean(attribute, "required"));
+			comments.append(sep).append(fieldComment != null ? literal(getString(fieldComment, "value").trim()) : "null");
+			skipNames.append(sep).append(fieldComment != null && getBoolean(fieldComment, "skipFieldName"));
+		}
+		sb.append("\tprivate static final String[] fieldNames = {").append(fieldNames).append("};\n");
+		sb.append("\tprivate static final String[] names = {").append(names).append("};\n");
+		sb.append("\tprivate static final Class[] types = {").append(typeNames).append("};\n");
+		sb.append("\tprivate static final boolean[] required = {").append(required).append("};\n");
+		sb.append("\tprivate static final String[] comments = {").append(comments).append("};\n");
+		sb.append("\tprivate static final boolean[] skipNames = {").append(skipNames).append("};\n\n");
+
+		method(sb, "int getMinChildren ()", "return " + minChildren + ";");
+		method(sb, "int getMaxChildren ()", "return " + maxChildren + ";");
+		method(sb, "String getComment ()", "return " + (comment != null ? literal(comment) : "null") + ";");
+		method(sb, "int getAttributeCount ()", "return " + fields.size() + ";");
+		method(sb, "String getFieldName (int index)", "return fieldNames[index];");
+		method(sb, "String getName (int index)", "return names[index];");
+		method(sb, "Class getType (int index)", "return types[index];");
+		method(sb, "boolean isRequired (int index)", "return required[index];");
+		method(sb, "String getAttributeComment (int index)", "return comments[index];");
+		method(sb, "boolean skipName (int index)", "return skipNames[index];");
+
+		writeGetter(sb, taskName, fields, "Object", "", null);
+		writeSetter(sb, taskName, fields, "Object", "", null);
+		TypeKind[] kinds = {TypeKind.INT, TypeKind.LONG, TypeKind.FLOAT, TypeKind.DOUBLE, TypeKind.BOOLEAN};
+		String[] primitives = {"int", "long", "float", "double", "boolean"};
+		for (int i = 0; i < kinds.length; i++) {
+			String suffix = Character.toUpperCase(primitives[i].charAt(0)) + primitives[i].substring(1);
+			writeGetter(sb, taskName, fields, primitives[i], suffix, kinds[i]);
+			writeSetter(sb, taskName, fields, primitives[i], suffix, kinds[i]);
+		}
+		sb.append("\tprivate static IllegalArgumentException invalid (int index, String type) {\n");
+		sb.append("\t\tif (index < 0 || index >= names.length) {\n");
+		sb.append("\t\t\treturn new IllegalArgumentException(\"Invalid attribute index \" + index);\n");
+		sb.append("\t\t}\n");
+		sb.append("\t\treturn new IllegalArgumentException(\"Attribute \" + names[index] + \" is not a writable \" + type);\n");
+		sb.append("\t}\n");
+		sb.append("}\n");
+
+		JavaFileObject file = filer.createSourceFile(packageName.isEmpty() ? simpleName : packageName + "." + simpleName, task);
+		try (Writer writer = file.openWriter()) {
+			writer.write(sb.toString());
+		}
+	}
+
+	private void writeGetter (StringBuilder sb, String taskName, List<VariableElement> fields, String type,
+		String suffix, TypeKind kind) {
+		sb.append("\t@Override public ").append(type).append(" get").append(suffix).append(" (Task task, int index) {\n");
+		sb.append("\t\tswitch (index) {\n");
+		for (int i = 0; i < fields.size(); i++) {
+			VariableElement field = fields.get(i);
+			if (kind != null && field.asType().getKind() != kind)
+				continue;
+			sb.append("\t\tcase ").append(i).append(": return ").append(access(taskName, field)).append(";\n");
+		}
+		sb.append("\t\t}\n");
+		sb.append("\t\tthrow invalid(index, \"").append(type).append("\");\n");
+		sb.append("\t}\n\n");
+	}
+
+	private void writeSetter (StringBuilder sb, String taskName, List<VariableElement> fields, String type,
+		String suffix, TypeKind kind) {
+		sb.append("\t@Override public void set").append(suffix).append(" (Task task, int index, ").append(type)
+			.append(" value) {\n");
+		sb.append("\t\tswitch (index) {\n");
+		for (int i = 0; i < fields.size(); i++) {
+			VariableElement field = fields.get(i);
+			if (field.getModifiers().contains(Modifier.FINAL))
+				continue;
+			TypeMirror fieldType = field.asType();
+			if (kind != null && fieldType.getKind() != kind)
+				continue;
+			String value = "value";
+			if (kind == null) {
+				// unboxing cast for primitives, plain cast for everything else
+				TypeMirror cast = fieldType.getKind().isPrimitive() ? types.boxedClass(types.getPrimitiveType(fieldType.getKind())).asType()
+					: types.erasure(fieldType);
+				value = "(" + cast + ")value";
+			}
+			sb.append("\t\tcase ").append(i).append(": ").append(access(taskName, field)).append(" = ").append(value)
+				.append("; return;\n");
+		}
+		sb.append("\t\t}\n");
+		sb.append("\t\tthrow invalid(index, \"").append(type).append("\");\n");
+		sb.append("\t}\n\n");
+	}
+
+	private String access (String taskName, VariableElement field) {
+		return "((" + taskName + ")task)." + field.getSimpleName();
+	}
+
+	private void method (StringBuilder sb, String signature, String body) {
+		sb.append("\t@Override public ").append(signature).append(" {\n");
+		sb.append("\t\t").append(body).append("\n");
+		sb.append("\t}\n\n");
+	}
+
+	/**
+	 * Public fields annotated with TaskAttribute, declared ones first then super classes, same as Class.getFields()
+	 */
+	private List<VariableElement> findAttributes (TypeElement task) {
+		List<VariableElement> fields = new ArrayList<>();
+		TypeElement type = task;
+		while (type != null) {
+			for (Element element : type.getEnclosedElements()) {
+				if (element.getKind() != ElementKind.FIELD || !element.getModifiers().contains(Modifier.PUBLIC))
+					continue;
+				if (getAnnotation(element, TASK_ATTRIBUTE) != null) {
+					fields.add((VariableElement)element);
+				}
+			}
+			type = getSuperclass(type);
+		}
+		return fields;
+	}
+
+	private AnnotationMirror findConstraint (TypeElement task) {
+		TypeElement type = task;
+		while (type != null) {
+			AnnotationMirror constraint = getAnnotation(type, TASK_CONSTRAINT);
+			if (constraint != null)
+				return constraint;
+			type = getSuperclass(type);
+		}
+		return null;
+	}
+
+	private TypeElement getSuperclass (TypeElement type) {
+		TypeMirror superclass = type.getSuperclass();
+		if (superclass.getKind() != TypeKind.DECLARED)
+			return null;
+		return (TypeElement)((DeclaredType)superclass).asElement();
+	}
+
+	private AnnotationMirror getAnnotation (Element element, String name) {
+		for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+			if (((TypeElement)mirror.getAnnotationType().asElement()).getQualifiedName().contentEquals(name)) {
+				return mirror;
+			}
+		}
+		return null;
+	}
+
+	private Object getValue (AnnotationMirror mirror, String name) {
+		// includes defaults, so we don't need to know them here
+		Map<? extends ExecutableElement, ? extends AnnotationValue> values = elements.getElementValuesWithDefaults(mirror);
+		for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : values.entrySet()) {
+			if (entry.getKey().getSimpleName().contentEquals(name)) {
+				return entry.getValue().getValue();
+			}
+		}
+		throw new IllegalArgumentException("No value " + name + " in " + mirror);
+	}
+
+	private String getString (AnnotationMirror mirror, String name) {
+		return (String)getValue(mirror, name);
+	}
+
+	private int getInt (AnnotationMirror mirror, String name) {
+		return (Integer)getValue(mirror, name);
+	}
+
+	private boolean getBoolean (AnnotationMirror mirror, String name) {
+		return (Boolean)getValue(mirror, name);
+	}
+
+	private static String literal (String value) {
+		StringBuilder sb = new StringBuilder("\"");
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+			case '"': sb.append("\\\""); break;
+			case '\\': sb.append("\\\\"); break;
+			case '\n': sb.append("\\n"); break;
+			case '\r': sb.append("\\r"); break;
+			case '\t': sb.append("\\t"); break;
+			default:
+				if (c < 0x20 || c > 0x7e) {
+					sb.append(String.format("\\u%04x", (int)c));
+				} else {
+					sb.append(c);
+				}
+			}
+		}
+		return sb.append('"').toString();
+	}
+}
@@ -14,6 +14,7 @@ import com.badlogic.gdx.scenes.scene2d.ui.Skin;
 import com.badlogic.gdx.scenes.scene2d.ui.Window;
 import com.badlogic.gdx.utils.Disposable;
 import com.badlogic.gdx.utils.GdxRuntimeException;
+import com.badlogic.gdx.utils.ObjectMap;
 import com.kotcrab.vis.ui.VisUI;
 import com.kotcrab.vis.ui.widget.VisWindow;
 import io.piotrjastrzebski.bte.model.BehaviorTreeModel;
@@ -113,6 +114,7 @@ public class AIEditor implements Disposable {
 	 * Update the editor, call this each frame
 	 */
 	public void update (float delta) {
+		model.update();
 		if (model.isValid() && stepStrategy.shouldStep(tree, delta) && autoStep) {
 			// TODO figure out a way to break stepping if there is an infinite loop in the tree
 			// TODO or more practically, if we run some excessive amount of tasks
@@ -233,6 +235,29 @@ public class AIEditor implements Disposable {
 		view.addSrcTask(tag, cls, visible);
 	}
 
+	/**
+	 * Add many task classes with same tag at once, use this instead of {@link #addTaskClass(String, Class)} for large sets
+	 */
+	public void addTaskClasses (String tag, Iterable<? extends Class<? extends Task>> classes) {
+		addTaskClasses(tag, classes, true);
+	}
+
+	public void addTaskClasses (String tag, Iterable<? extends Class<? extends Task>> classes, boolean visible) {
+		view.addSrcTasks(tag, classes, visible);
+	}
+
+	/**
+	 * Add many task classes at once, for example result of a package scan grouped by tag
+	 * @param tagToClasses task classes by their tag
+	 */
+	public void addTaskClasses (ObjectMap<String, ? extends Iterable<? extends Class<? extends Task>>> tagToClasses) {
+		addTaskClasses(tagToClasses, true);
+	}
+
+	public void addTaskClasses (ObjectMap<String, ? extends Iterable<? extends Class<? extends Task>>> tagToClasses, boolean visible) {
+		view.addSrcTasks(tagToClasses, visible);
+	}
+
 	public void addDefaultTaskClasses () {
 		addTaskClass("branch", Sequence.class);
 		addTaskClass("branch", Selector.class);
@@ -266,7 +291,8 @@ public class AIEditor implements Disposable {
 	}
 
 	public void restartBehaviorTree () {
-		tree.reset();
+		// reset() would clear the root and the blackboard
+		tree.resetTask();
 	}
 
 	public interface BehaviorTreeStepStrategy {
@@ -303,6 +329,7 @@ public class AIEditor implements Disposable {
 	}
 
 	@Override public void dispose () {
+		model.dispose();
 		if (ownsSkin) {
 			VisUI.dispose();
 		}
@@ -0,0 +1,100 @@
+package io.piotrjastrzebski.bte;
+
+import com.badlogic.gdx.files.FileHandle;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Writes to a temporary file next to the target file, target is replaced with it only when {@link #commit()} is called
+ *
+ * If writing fails part way, the temporary file is deleted when the stream is closed and the target file is left as it was
+ * Target file must be a file on disk, as the temporary file is renamed over it
+ */
+public class AtomicFileOutputStream extends FilterOutputStream {
+	/**
+	 * Suffix of the temporary file
+	 */
+	public static final String TEMP_SUFFIX = ".tmp";
+
+	private final FileHandle fh;
+	private final FileHandle temp;
+	private boolean closed;
+
+	/**
+	 * @param fh file to replace
+	 * @param bufferSize size of the buffer, 0 for no buffer
+	 */
+	public AtomicFileOutputStream (FileHandle fh, int bufferSize) {
+		this(fh, fh.sibling(fh.name() + TEMP_SUFFIX), bufferSize);
+	}
+
+	private AtomicFileOutputStream (FileHandle fh, FileHandle temp, int bufferSize) {
+		super(bufferSize > 0 ? temp.write(false, bufferSize) : temp.write(false));
+		this.fh = fh;
+		this.temp = temp;
+	}
+
+	@Override public void write (byte[] bytes, int offset, int length) throws IOException {
+		// FilterOutputStream writes one byte at a time
+		out.write(bytes, offset, length);
+	}
+
+	/**
+	 * Close the stream and replace the target file with what was written
+	 */
+	public void commit () throws IOException {
+		commit(fh);
+	}
+
+	/**
+	 * Close the stream and replace given file with what was written, for targets that are known only after writing
+	 * @param target file to replace, must be on the same file system as the target stream was created with
+	 */
+	public void commit (FileHandle target) throws IOException {
+		if (closed) throw new IOException("Stream is closed: " + fh);
+		closed = true;
+		try {
+			out.close();
+		} catch (IOException e) {
+			temp.delete();
+			throw e;
+		}
+		Path source = temp.file().toPath();
+		Path targetPath = target.file().toPath();
+		try {
+			try {
+				Files.move(source, targetPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(source, targetPath, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException e) {
+			temp.delete();
+			throw e;
+		}
+	}
+
+	/**
+	 * Close the stream, if it was not committed what was written is discarded
+	 */
+	@Override public void close () throws IOException {
+		if (closed) return;
+		closed = true;
+		try {
+			out.close();
+		} finally {
+			temp.delete();
+		}
+	}
+
+	/**
+	 * @return file that is replaced on commit
+	 */
+	public FileHandle getFile () {
+		return fh;
+	}
+}
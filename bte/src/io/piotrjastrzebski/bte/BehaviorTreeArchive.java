@@ -0,0 +1,213 @@
+package io.piotrjastrzebski.bte;
+
+import com.badlogic.gdx.Files;
+import com.badlogic.gdx.ai.btree.Task;
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.GdxRuntimeException;
+import com.badlogic.gdx.utils.ObjectMap;
+import com.badlogic.gdx.utils.SerializationException;
+import com.badlogic.gdx.utils.StreamUtils;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Single file with many trees in {@link BehaviorTreeBinary} format, with an index from tree reference to the tree data
+ *
+ * Archive is memory mapped, only the index is read when it is opened, trees are decoded when they are asked for
+ * Mapped pages are shared by all processes that use the same archive
+ * Add it to {@link EditorBehaviourTreeLibrary#addArchive(BehaviorTreeArchive)} to load archetypes from it
+ */
+public class BehaviorTreeArchive {
+	/**
+	 * Extension of archive files
+	 */
+	public static final String EXTENSION = "bta";
+	// "BTA" + format version
+	private static final int MAGIC = 0x42544101;
+
+	/**
+	 * Write an archive, file is replaced only once the archive is written
+	 * @param fh file to write to
+	 * @param references references of trees, as they will be looked up
+	 * @param trees trees in {@link BehaviorTreeBinary} format, same order as references
+	 */
+	public static void write (FileHandle fh, Array<String> references, Array<byte[]> trees) {
+		if (references.size != trees.size) throw new IllegalArgumentException("Each tree needs a reference");
+		AtomicFileOutputStream file = new AtomicFileOutputStream(fh, 8192);
+		DataOutputStream out = new DataOutputStream(file);
+		try {
+			byte[][] names = new byte[references.size][];
+			// magic, count
+			long offset = 8;
+			for (int i = 0; i < references.size; i++) {
+				names[i] = references.get(i).getBytes("UTF-8");
+				// name length, name, offset, length
+				offset += 4 + names[i].length + 8 + 4;
+			}
+			out.writeInt(MAGIC);
+			out.writeInt(references.size);
+			for (int i = 0; i < references.size; i++) {
+				out.writeInt(names[i].length);
+				out.write(names[i]);
+				out.writeLong(offset);
+				out.writeInt(trees.get(i).length);
+				offset += trees.get(i).length;
+			}
+			for (byte[] tree : trees) {
+				out.write(tree);
+			}
+			out.flush();
+			file.commit();
+		} catch (IOException e) {
+			throw new GdxRuntimeException("Error writing file: " + fh, e);
+		} finally {
+			StreamUtils.closeQuietly(file);
+		}
+	}
+
+	/**
+	 * Open an archive, it must be a file on disk, so it can be mapped
+	 * @param fh archive file
+	 * @return opened archive
+	 */
+	public static BehaviorTreeArchive open (FileHandle fh) {
+		if (fh.type() == Files.FileType.Classpath) throw new GdxRuntimeException("Archive can't be a classpath file: " + fh);
+		RandomAccessFile file = null;
+		try {
+			file = new RandomAccessFile(fh.file(), "r");
+			FileChannel channel = file.getChannel();
+			// mapping stays valid after the channel is closed
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			return new BehaviorTreeArchive(fh, buffer);
+		} catch (IOException e) {
+			throw new GdxRuntimeException("Error opening archive: " + fh, e);
+		} finally {
+			StreamUtils.closeQuietly(file);
+		}
+	}
+
+	private final FileHandle fh;
+	private final ByteBuffer buffer;
+	private final ObjectMap<String, Entry> entries = new ObjectMap<>();
+	private final Array<String> references = new Array<>();
+
+	private BehaviorTreeArchive (FileHandle fh, ByteBuffer buffer) {
+		this.fh = fh;
+		this.buffer = buffer;
+		if (buffer.capacity() < 8 || buffer.getInt(0) != MAGIC) {
+			throw new SerializationException("Not a tree archive or unsupported version: " + fh);
+		}
+		int capacity = buffer.capacity();
+		int count = buffer.getInt(4);
+		// each entry takes at least 16 bytes
+		if (count < 0 || count > (capacity - 8) / 16) {
+			throw new SerializationException("Corrupted archive index, invalid count " + count + ": " + fh);
+		}
+		int position = 8;
+		try {
+			for (int i = 0; i < count; i++) {
+				int nameLength = buffer.getInt(position);
+				// checked before anything is allocated
+				if (nameLength < 0 || nameLength > capacity - position - 16) {
+					throw new SerializationException("Corrupted archive index, invalid name length " + nameLength + ": " + fh);
+				}
+				byte[] name = new byte[nameLength];
+				ByteBuffer view = buffer.duplicate();
+				view.position(position + 4);
+				view.get(name);
+				position += 4 + nameLength;
+				String reference = new String(name, "UTF-8");
+				long offset = buffer.getLong(position);
+				int length = buffer.getInt(position + 8);
+				position += 12;
+				if (offset < 0 || length < 0 || offset + length > capacity) {
+					throw new SerializationException("Invalid entry " + reference + " in " + fh);
+				}
+				entries.put(reference, new Entry((int)offset, length));
+				references.add(reference);
+			}
+		} catch (IndexOutOfBoundsException | UnsupportedEncodingException e) {
+			throw new SerializationException("Corrupted archive index: " + fh, e);
+		}
+	}
+
+	/**
+	 * @return if archive contains tree with given reference
+	 */
+	public boolean contains (String reference) {
+		return entries.containsKey(reference);
+	}
+
+	/**
+	 * @return references of all trees in this archive, in archive order
+	 */
+	public Array<String> getReferences () {
+		return references;
+	}
+
+	/**
+	 * Decode the tree with given reference
+	 * @param reference reference of the tree
+	 * @param comments user comments of tasks are put here, can be null
+	 * @return root task of the tree or null if archive doesn't contain it
+	 */
+	public Task read (String reference, ObjectMap<Task, String> comments) {
+		Entry entry = entries.get(reference);
+		if (entry == null) return null;
+		// our own view, so reads can happen from any thread
+		ByteBuffer view = buffer.duplicate();
+		view.limit(entry.offset + entry.length);
+		view.position(entry.offset);
+		try {
+			return BehaviorTreeBinary.read(new BufferInputStream(view), comments);
+		} catch (IOException e) {
+			throw new SerializationException("Error reading " + reference + " from " + fh, e);
+		}
+	}
+
+	public FileHandle getFile () {
+		return fh;
+	}
+
+	@Override public String toString () {
+		return "BehaviorTreeArchive{" + fh + ", trees=" + entries.size + "}";
+	}
+
+	private static class Entry {
+		final int offset;
+		final int length;
+
+		Entry (int offset, int length) {
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+
+	private static class BufferInputStream extends InputStream {
+		private final ByteBuffer buffer;
+
+		BufferInputStream (ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override public int read () {
+			return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+		}
+
+		@Override public int read (byte[] bytes, int offset, int length) {
+			if (length == 0) return 0;
+			if (!buffer.hasRemaining()) return -1;
+			length = Math.min(length, buffer.remaining());
+			buffer.get(bytes, offset, length);
+			return length;
+		}
+
+		@Override public int available () {
+			return buffer.remaining();
+		}
+	}
+}
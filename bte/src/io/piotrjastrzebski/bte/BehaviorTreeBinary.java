@@ -0,0 +1,567 @@
+package io.piotrjastrzebski.bte;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.ai.btree.BehaviorTree;
+import com.badlogic.gdx.ai.btree.Task;
+import com.badlogic.gdx.ai.btree.decorator.Include;
+import com.badlogic.gdx.ai.btree.utils.DistributionAdapters;
+import com.badlogic.gdx.ai.utils.random.Distribution;
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.ObjectIntMap;
+import com.badlogic.gdx.utils.ObjectMap;
+import com.badlogic.gdx.utils.SerializationException;
+import com.badlogic.gdx.utils.StreamUtils;
+import com.badlogic.gdx.utils.reflect.ClassReflection;
+import com.badlogic.gdx.utils.reflect.ReflectionException;
+import io.piotrjastrzebski.bte.model.tasks.TaskClassInfo;
+
+import java.io.*;
+
+/**
+ * Compact binary format of {@link BehaviorTree}s, faster to load than the text format parsed by
+ * {@link com.badlogic.gdx.ai.btree.utils.BehaviorTreeParser}
+ *
+ * File starts with a class table and a table of all strings, task names, attribute names and values are stored as indices
+ * Tasks are stored depth first, each with its attributes, optional user comment, optional guard and children
+ * Numbers are varint encoded, attributes are matched by name, so they survive reordering of fields in task classes
+ *
+ * Use {@link EditorBehaviourTreeLibrary#convert(String, FileHandle)} to convert between text and binary trees
+ */
+@SuppressWarnings({"rawtypes", "unchecked"})
+public class BehaviorTreeBinary {
+	private final static String TAG = BehaviorTreeBinary.class.getSimpleName();
+	/**
+	 * Extension of binary tree files
+	 */
+	public static final String EXTENSION = "btb";
+	// "BTB" + format version
+	private static final int MAGIC = 0x42544201;
+	private static final int BUFFER_SIZE = 8192;
+
+	private static final int FLAG_GUARD = 1;
+	private static final int FLAG_COMMENT = 1 << 1;
+
+	private static final int KIND_NULL = 0;
+	private static final int KIND_INT = 1;
+	private static final int KIND_LONG = 2;
+	private static final int KIND_FLOAT = 3;
+	private static final int KIND_DOUBLE = 4;
+	private static final int KIND_BOOLEAN = 5;
+	private static final int KIND_STRING = 6;
+	private static final int KIND_ENUM = 7;
+	private static final int KIND_DISTRIBUTION = 8;
+
+	private BehaviorTreeBinary () {}
+
+	/**
+	 * @param path path or reference of a tree
+	 * @return if the path points to a binary tree, based on the extension
+	 */
+	public static boolean isBinary (String path) {
+		return path.endsWith("." + EXTENSION);
+	}
+
+	/**
+	 * Write the tree in binary format, file is replaced only once the tree is written
+	 * @param tree tree to write
+	 * @param comments user comments of tasks, can be null
+	 * @param fh file to write to
+	 */
+	public static void write (BehaviorTree tree, ObjectMap<Task, String> comments, FileHandle fh) {
+		AtomicFileOutputStream out = new AtomicFileOutputStream(fh, BUFFER_SIZE);
+		try {
+			write(tree.getChild(0), comments, out);
+			out.commit();
+		} catch (IOException e) {
+			throw new SerializationException("Error writing file: " + fh, e);
+		} finally {
+			StreamUtils.closeQuietly(out);
+		}
+	}
+
+	/**
+	 * Write the tree in binary format, output is flushed but not closed
+	 * @param root root task of the tree
+	 * @param comments user comments of tasks, can be null
+	 * @param out stream to write to
+	 */
+	public static void write (Task root, ObjectMap<Task, String> comments, OutputStream out) throws IOException {
+		// tables are built while tasks are written, so we write tasks first
+		Tables tables = new Tables();
+		ByteArrayOutputStream body = new ByteArrayOutputStream(BUFFER_SIZE);
+		DataOutputStream bodyData = new DataOutputStream(body);
+		writeTask(bodyData, root, comments, tables);
+
+		DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, BUFFER_SIZE));
+		data.writeInt(MAGIC);
+		writeVarInt(data, tables.classes.size);
+		for (Class<? extends Task> cls : tables.classes) {
+			writeString(data, cls.getName());
+		}
+		writeVarInt(data, tables.strings.size);
+		for (String string : tables.strings) {
+			writeString(data, string);
+		}
+		body.writeTo(data);
+		data.flush();
+	}
+
+	private static void writeTask (DataOutputStream out, Task task, ObjectMap<Task, String> comments, Tables tables)
+		throws IOException {
+		writeVarInt(out, tables.classIndex(task.getClass()));
+		String comment = comments != null ? comments.get(task) : null;
+		Task guard = task.getGuard();
+		int flags = (guard != null ? FLAG_GUARD : 0) | (comment != null ? FLAG_COMMENT : 0);
+		writeVarInt(out, flags);
+		if (comment != null) {
+			writeVarInt(out, tables.stringIndex(comment));
+		}
+
+		writeAttributes(out, task, tables);
+
+		if (guard != null) {
+			writeTask(out, guard, comments, tables);
+		}
+		// include may have a whole tree as child, ignore it
+		int childCount = task instanceof Include ? 0 : task.getChildCount();
+		writeVarInt(out, childCount);
+		for (int i = 0; i < childCount; i++) {
+			writeTask(out, task.getChild(i), comments, tables);
+		}
+	}
+
+	/**
+	 * Write attributes and user comment of a single task, without its guard and children
+	 * @param task task to write
+	 * @param comment user comment of the task, can be null
+	 * @param out stream to write to
+	 */
+	public static void writeAttributes (Task task, String comment, OutputStream out) throws IOException {
+		Tables tables = new Tables();
+		ByteArrayOutputStream body = new ByteArrayOutputStream(256);
+		DataOutputStream bodyData = new DataOutputStream(body);
+		writeVarInt(bodyData, comment != null ? FLAG_COMMENT : 0);
+		if (comment != null) {
+			writeVarInt(bodyData, tables.stringIndex(comment));
+		}
+		writeAttributes(bodyData, task, tables);
+
+		DataOutputStream data = new DataOutputStream(out);
+		writeVarInt(data, tables.strings.size);
+		for (String string : tables.strings) {
+			writeString(data, string);
+		}
+		body.writeTo(data);
+		data.flush();
+	}
+
+	private static void writeAttributes (DataOutputStream out, Task task, Tables tables) throws IOException {
+		TaskClassInfo info = TaskClassInfo.get(task);
+		int count = 0;
+		for (int i = 0, n = info.getAttributeCount(); i < n; i++) {
+			if (isSupported(info.getAttribute(i).getType())) count++;
+		}
+		writeVarInt(out, count);
+		for (int i = 0, n = info.getAttributeCount(); i < n; i++) {
+			TaskClassInfo.Attribute attribute = info.getAttribute(i);
+			if (!isSupported(attribute.getType())) {
+				Gdx.app.error(TAG, "Not supported type of attribute " + attribute.getName() + " in " + task.getClass());
+				continue;
+			}
+			writeVarInt(out, tables.stringIndex(attribute.getName()));
+			try {
+				writeValue(out, task, attribute, tables);
+			} catch (ReflectionException e) {
+				throw new SerializationException("Failed to get attribute " + attribute.getName() + " of " + task.getClass(), e);
+			}
+		}
+	}
+
+	private static boolean isSupported (Class type) {
+		return type.isPrimitive() || type == String.class || type.isEnum() || Distribution.class.isAssignableFrom(type);
+	}
+
+	private static void writeValue (DataOutputStream out, Task task, TaskClassInfo.Attribute attribute, Tables tables)
+		throws IOException, ReflectionException {
+		Class type = attribute.getType();
+		if (type == int.class) {
+			out.writeByte(KIND_INT);
+			writeVarInt(out, zigZag(attribute.getInt(task)));
+		} else if (type == long.class) {
+			out.writeByte(KIND_LONG);
+			writeVarLong(out, zigZag(attribute.getLong(task)));
+		} else if (type == float.class) {
+			out.writeByte(KIND_FLOAT);
+			out.writeFloat(attribute.getFloat(task));
+		} else if (type == double.class) {
+			out.writeByte(KIND_DOUBLE);
+			out.writeDouble(attribute.getDouble(task));
+		} else if (type == boolean.class) {
+			out.writeByte(KIND_BOOLEAN);
+			out.writeBoolean(attribute.getBoolean(task));
+		} else if (type == char.class) {
+			out.writeByte(KIND_INT);
+			writeVarInt(out, zigZag((Character)attribute.get(task)));
+		} else if (type == byte.class || type == short.class) {
+			out.writeByte(KIND_INT);
+			writeVarInt(out, zigZag(((Number)attribute.get(task)).intValue()));
+		} else {
+			Object value = attribute.get(task);
+			if (value == null) {
+				out.writeByte(KIND_NULL);
+			} else if (type == String.class) {
+				out.writeByte(KIND_STRING);
+				writeVarInt(out, tables.stringIndex((String)value));
+			} else if (type.isEnum()) {
+				out.writeByte(KIND_ENUM);
+				writeVarInt(out, tables.stringIndex(((Enum)value).name()));
+			} else {
+				out.writeByte(KIND_DISTRIBUTION);
+				writeVarInt(out, tables.stringIndex(BehaviorTreeWriter.toParsableString((Distribution)value)));
+			}
+		}
+	}
+
+	/**
+	 * Read a binary tree
+	 * @param fh file to read from
+	 * @param comments user comments of tasks are put here, can be null
+	 * @return root task of the tree
+	 */
+	public static Task read (FileHandle fh, ObjectMap<Task, String> comments) {
+		InputStream in = fh.read(BUFFER_SIZE);
+		try {
+			return read(in, comments);
+		} catch (IOException e) {
+			throw new SerializationException("Error reading file: " + fh, e);
+		} finally {
+			StreamUtils.closeQuietly(in);
+		}
+	}
+
+	/**
+	 * Read a binary tree, stream is not closed
+	 * @param in stream to read from
+	 * @param comments user comments of tasks are put here, can be null
+	 * @return root task of the tree
+	 */
+	public static Task read (InputStream in, ObjectMap<Task, String> comments) throws IOException {
+		DataInputStream data = new DataInputStream(new BufferedInputStream(in, BUFFER_SIZE));
+		if (data.readInt() != MAGIC) {
+			throw new SerializationException("Not a binary behavior tree or unsupported version");
+		}
+		int classCount = readCount(data, "class");
+		ClassEntry[] classes = new ClassEntry[classCount];
+		for (int i = 0; i < classCount; i++) {
+			String name = readString(data);
+			Class type;
+			try {
+				type = ClassReflection.forName(name);
+			} catch (ReflectionException e) {
+				throw new SerializationException("Task class not found: " + name, e);
+			}
+			if (!ClassReflection.isAssignableFrom(Task.class, type)) {
+				throw new SerializationException("Not a task class: " + name);
+			}
+			classes[i] = new ClassEntry(type);
+		}
+		int stringCount = readCount(data, "string");
+		String[] strings = new String[stringCount];
+		for (int i = 0; i < stringCount; i++) {
+			strings[i] = readString(data);
+		}
+		return readTask(data, classes, strings, comments);
+	}
+
+	private static Task readTask (DataInputStream in, ClassEntry[] classes, String[] strings, ObjectMap<Task, String> comments)
+		throws IOException {
+		ClassEntry entry = readClass(in, classes);
+		Task task;
+		try {
+			task = (Task)ClassReflection.newInstance(entry.type);
+		} catch (ReflectionException e) {
+			throw new SerializationException("Cannot create task " + entry.type, e);
+		}
+		int flags = readVarInt(in);
+		if ((flags & FLAG_COMMENT) != 0) {
+			String comment = readString(in, strings);
+			if (comments != null) {
+				comments.put(task, comment);
+			}
+		}
+		readAttributes(in, task, entry, strings);
+		try {
+			if ((flags & FLAG_GUARD) != 0) {
+				task.setGuard(readTask(in, classes, strings, comments));
+			}
+			int childCount = readCount(in, "child");
+			for (int i = 0; i < childCount; i++) {
+				task.addChild(readTask(in, classes, strings, comments));
+			}
+		} catch (IllegalStateException e) {
+			// more children than the task can have
+			throw new SerializationException("Invalid children of " + entry.type, e);
+		}
+		return task;
+	}
+
+	/**
+	 * Read attributes written with {@link #writeAttributes(Task, String, OutputStream)} into given task, stream is not closed
+	 * @param in stream to read from
+	 * @param task task attributes are set on
+	 * @return user comment of the task or null if it had none
+	 */
+	public static String readAttributes (InputStream in, Task task) throws IOException {
+		DataInputStream data = new DataInputStream(in);
+		int stringCount = readCount(data, "string");
+		String[] strings = new String[stringCount];
+		for (int i = 0; i < stringCount; i++) {
+			strings[i] = readString(data);
+		}
+		String comment = null;
+		if ((readVarInt(data) & FLAG_COMMENT) != 0) {
+			comment = readString(data, strings);
+		}
+		readAttributes(data, task, new ClassEntry(task.getClass()), strings);
+		return comment;
+	}
+
+	private static void readAttributes (DataInputStream in, Task task, ClassEntry entry, String[] strings) throws IOException {
+		int count = readCount(in, "attribute");
+		for (int i = 0; i < count; i++) {
+			String name = readString(in, strings);
+			TaskClassInfo.Attribute attribute = entry.attributes.get(name);
+			try {
+				readValue(in, task, attribute, strings);
+			} catch (ReflectionException e) {
+				throw new SerializationException("Failed to set attribute " + name + " of " + entry.type, e);
+			}
+		}
+	}
+
+	private static void readValue (DataInputStream in, Task task, TaskClassInfo.Attribute attribute, String[] strings)
+		throws IOException, ReflectionException {
+		int kind = in.readByte();
+		// value is always read, even if the attribute is gone from the class
+		switch (kind) {
+		case KIND_NULL:
+			if (attribute == null) break;
+			checkKind(attribute, kind, !attribute.getType().isPrimitive());
+			attribute.set(task, null);
+			break;
+		case KIND_INT: {
+			int value = unZigZag(readVarInt(in));
+			if (attribute == null) break;
+			Class type = attribute.getType();
+			if (type == int.class) {
+				attribute.setInt(task, value);
+			} else if (type == char.class) {
+				attribute.set(task, (char)value);
+			} else if (type == short.class) {
+				attribute.set(task, (short)value);
+			} else if (type == byte.class) {
+				attribute.set(task, (byte)value);
+			} else {
+				checkKind(attribute, kind, false);
+			}
+		} break;
+		case KIND_LONG: {
+			long value = unZigZag(readVarLong(in));
+			if (attribute == null) break;
+			checkKind(attribute, kind, attribute.getType() == long.class);
+			attribute.setLong(task, value);
+		} break;
+		case KIND_FLOAT: {
+			float value = in.readFloat();
+			if (attribute == null) break;
+			checkKind(attribute, kind, attribute.getType() == float.class);
+			attribute.setFloat(task, value);
+		} break;
+		case KIND_DOUBLE: {
+			double value = in.readDouble();
+			if (attribute == null) break;
+			checkKind(attribute, kind, attribute.getType() == double.class);
+			attribute.setDouble(task, value);
+		} break;
+		case KIND_BOOLEAN: {
+			boolean value = in.readBoolean();
+			if (attribute == null) break;
+			checkKind(attribute, kind, attribute.getType() == boolean.class);
+			attribute.setBoolean(task, value);
+		} break;
+		case KIND_STRING: {
+			String value = readString(in, strings);
+			if (attribute == null) break;
+			checkKind(attribute, kind, attribute.getType() == String.class);
+			attribute.set(task, value);
+		} break;
+		case KIND_ENUM: {
+			String value = readString(in, strings);
+			if (attribute == null) break;
+			checkKind(attribute, kind, attribute.getType().isEnum());
+			Enum constant;
+			try {
+				constant = Enum.valueOf(attribute.getType(), value);
+			} catch (IllegalArgumentException e) {
+				throw new SerializationException("Invalid value " + value + " of attribute " + attribute.getName(), e);
+			}
+			attribute.set(task, constant);
+		} break;
+		case KIND_DISTRIBUTION: {
+			String value = readString(in, strings);
+			if (attribute == null) break;
+			checkKind(attribute, kind, Distribution.class.isAssignableFrom(attribute.getType()));
+			Distribution distribution;
+			try {
+				distribution = getAdapters().toDistribution(value, attribute.getType());
+			} catch (DistributionAdapters.DistributionFormatException e) {
+				throw new SerializationException("Invalid value " + value + " of attribute " + attribute.getName(), e);
+			}
+			attribute.set(task, distribution);
+		} break;
+		default:
+			throw new SerializationException("Invalid attribute kind " + kind);
+		}
+		if (attribute == null) {
+			Gdx.app.error(TAG, "Attribute not found in " + task.getClass() + ", ignored");
+		}
+	}
+
+	private static void checkKind (TaskClassInfo.Attribute attribute, int kind, boolean matches) {
+		if (!matches) {
+			throw new SerializationException("Invalid kind " + kind + " of attribute " + attribute.getName() + " of type " + attribute.getType());
+		}
+	}
+
+	private static DistributionAdapters adapters;
+	private static synchronized DistributionAdapters getAdapters () {
+		if (adapters == null)
+			adapters = new DistributionAdapters();
+		return adapters;
+	}
+
+	private static int zigZag (int value) {
+		return (value << 1) ^ (value >> 31);
+	}
+
+	private static int unZigZag (int value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private static long zigZag (long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	private static long unZigZag (long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private static void writeVarInt (DataOutputStream out, int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	private static int readVarInt (DataInputStream in) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) return value;
+		}
+		throw new SerializationException("Malformed varint");
+	}
+
+	private static void writeVarLong (DataOutputStream out, long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.writeByte((int)((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.writeByte((int)value);
+	}
+
+	private static long readVarLong (DataInputStream in) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 70; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (long)(b & 0x7F) << shift;
+			if ((b & 0x80) == 0) return value;
+		}
+		throw new SerializationException("Malformed varlong");
+	}
+
+	private static void writeString (DataOutputStream out, String value) throws IOException {
+		// not writeUTF, it is limited to 64k and comments can be long
+		byte[] bytes = value.getBytes("UTF-8");
+		writeVarInt(out, bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString (DataInputStream in) throws IOException {
+		byte[] bytes = new byte[readCount(in, "string byte")];
+		in.readFully(bytes);
+		return new String(bytes, "UTF-8");
+	}
+
+	private static int readCount (DataInputStream in, String what) throws IOException {
+		int count = readVarInt(in);
+		if (count < 0) throw new SerializationException("Invalid " + what + " count " + count);
+		return count;
+	}
+
+	private static String readString (DataInputStream in, String[] strings) throws IOException {
+		int index = readVarInt(in);
+		if (index < 0 || index >= strings.length) throw new SerializationException("Invalid string index " + index);
+		return strings[index];
+	}
+
+	private static ClassEntry readClass (DataInputStream in, ClassEntry[] classes) throws IOException {
+		int index = readVarInt(in);
+		if (index < 0 || index >= classes.length) throw new SerializationException("Invalid class index " + index);
+		return classes[index];
+	}
+
+	private static class Tables {
+		final Array<Class<? extends Task>> classes = new Array<>();
+		final ObjectIntMap<Class<? extends Task>> classToIndex = new ObjectIntMap<>();
+		final Array<String> strings = new Array<>();
+		final ObjectIntMap<String> stringToIndex = new ObjectIntMap<>();
+
+		int classIndex (Class<? extends Task> cls) {
+			int index = classToIndex.get(cls, -1);
+			if (index < 0) {
+				index = classes.size;
+				classes.add(cls);
+				classToIndex.put(cls, index);
+			}
+			return index;
+		}
+
+		int stringIndex (String string) {
+			int index = stringToIndex.get(string, -1);
+			if (index < 0) {
+				index = strings.size;
+				strings.add(string);
+				stringToIndex.put(string, index);
+			}
+			return index;
+		}
+	}
+
+	private static class ClassEntry {
+		final Class type;
+		final ObjectMap<String, TaskClassInfo.Attribute> attributes = new ObjectMap<>();
+
+		ClassEntry (Class type) {
+			this.type = type;
+			TaskClassInfo info = TaskClassInfo.get(type);
+			for (int i = 0, n = info.getAttributeCount(); i < n; i++) {
+				TaskClassInfo.Attribute attribute = info.getAttribute(i);
+				attributes.put(attribute.getName(), attribute);
+			}
+		}
+	}
+}
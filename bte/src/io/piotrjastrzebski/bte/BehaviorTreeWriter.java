@@ -3,21 +3,27 @@ package io.piotrjastrzebski.bte;
 import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.ai.btree.BehaviorTree;
 import com.badlogic.gdx.ai.btree.Task;
-import com.badlogic.gdx.ai.btree.annotation.TaskAttribute;
 import com.badlogic.gdx.ai.btree.decorator.Include;
 import com.badlogic.gdx.ai.btree.utils.DistributionAdapters;
 import com.badlogic.gdx.ai.utils.random.Distribution;
 import com.badlogic.gdx.files.FileHandle;
 import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.GdxRuntimeException;
 import com.badlogic.gdx.utils.ObjectMap;
+import com.badlogic.gdx.utils.StreamUtils;
 import com.badlogic.gdx.utils.StringBuilder;
-import com.badlogic.gdx.utils.reflect.Annotation;
-import com.badlogic.gdx.utils.reflect.ClassReflection;
-import com.badlogic.gdx.utils.reflect.Field;
 import com.badlogic.gdx.utils.reflect.ReflectionException;
+import io.piotrjastrzebski.bte.model.tasks.TaskClassInfo;
 import io.piotrjastrzebski.bte.model.tasks.TaskModel;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
 import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Utility class for serialization of {@link BehaviorTree}s in a format readable by {@link com.badlogic.gdx.ai.btree.utils.BehaviorTreeParser}
@@ -28,6 +34,7 @@ import java.util.Comparator;
  */
 public class BehaviorTreeWriter {
 	private final static String TAG = BehaviorTreeWriter.class.getSimpleName();
+	private final static int BUFFER_SIZE = 8192;
 
 	/**
 	 * Save the tree in parsable format
@@ -40,7 +47,25 @@ public class BehaviorTreeWriter {
 			Gdx.app.error("BehaviorTreeSaver", "save path cannot be a directory!");
 			return;
 		}
-		savePath.writeString(serialize(tree), false);
+		save(tree, savePath);
+	}
+
+	/**
+	 * Save the tree in parsable format, tree is streamed to a temporary file that replaces the file once it is written
+	 * If serialization fails, the file is left as it was
+	 * @param tree behavior tree to save
+	 * @param fh file to save to, can't be a folder
+	 */
+	public static void save (BehaviorTree tree, FileHandle fh) {
+		AtomicFileOutputStream out = new AtomicFileOutputStream(fh, BUFFER_SIZE);
+		try {
+			serialize(tree, out);
+			out.commit();
+		} catch (IOException e) {
+			throw new GdxRuntimeException("Error writing file: " + fh, e);
+		} finally {
+			StreamUtils.closeQuietly(out);
+		}
 	}
 
 	/**
@@ -58,33 +83,113 @@ public class BehaviorTreeWriter {
 	 * @return serialized tree
 	 */
 	public static String serialize(Task task) {
+		StringBuilder sb = new StringBuilder();
+		try {
+			serialize(task, sb);
+		} catch (IOException e) {
+			// StringBuilder doesn't throw
+			throw new GdxRuntimeException(e);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Serialize the tree to parser readable format
+	 * @param task task to serialize
+	 * @param comments user comments of tasks, written before them, can be null
+	 * @return serialized tree
+	 */
+	public static String serialize(Task task, ObjectMap<Task, String> comments) {
+		StringBuilder sb = new StringBuilder();
+		try {
+			serialize(task, comments, sb);
+		} catch (IOException e) {
+			// StringBuilder doesn't throw
+			throw new GdxRuntimeException(e);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Serialize the tree to parser readable format, encoded as UTF-8
+	 * Output is buffered and flushed, but not closed
+	 * @param tree BehaviorTree to serialize
+	 * @param out stream to write to
+	 */
+	public static void serialize (BehaviorTree tree, OutputStream out) throws IOException {
+		Writer writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"), BUFFER_SIZE);
+		serialize(tree, writer);
+		writer.flush();
+	}
+
+	/**
+	 * Serialize the tree to parser readable format, encoded as UTF-8
+	 * Output is buffered and flushed, but not closed
+	 * @param task task to serialize
+	 * @param comments user comments of tasks, written before them, can be null
+	 * @param out stream to write to
+	 */
+	public static void serialize (Task task, ObjectMap<Task, String> comments, OutputStream out) throws IOException {
+		Writer writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"), BUFFER_SIZE);
+		serialize(task, comments, writer);
+		writer.flush();
+	}
+
+	/**
+	 * Serialize the tree to parser readable format, tree is written as it is traversed
+	 * @param tree BehaviorTree to serialize
+	 * @param out where to write, should be buffered
+	 */
+	public static void serialize (BehaviorTree tree, Appendable out) throws IOException {
+		serialize(tree.getChild(0), out);
+	}
+
+	/**
+	 * Serialize the tree to parser readable format, tree is written as it is traversed
+	 * @param task task to serialize
+	 * @param out where to write, should be buffered
+	 */
+	public static void serialize (Task task, Appendable out) throws IOException {
+		serialize(task, null, out);
+	}
+
+	/**
+	 * Serialize the tree to parser readable format, tree is written as it is traversed
+	 * @param task task to serialize
+	 * @param comments user comments of tasks, written before them, can be null
+	 * @param out where to write, should be buffered
+	 */
+	public static void serialize (Task task, ObjectMap<Task, String> comments, Appendable out) throws IOException {
 		Array<Class<? extends Task>> classes = new Array<>();
 		findClasses(task, classes);
 		ObjectMap<Task, GuardHolder> taskToGuard = new ObjectMap<>();
  		findGuards(task, taskToGuard, 0);
 		Gdx.app.log(TAG, "Found guards: " + taskToGuard.toString());
 
+		writeImports(out, classes);
+
+		writeGuards(out, taskToGuard, comments);
+
+		out.append("\nroot\n");
+		writeTask(out, task, 1, taskToGuard, comments);
+	}
+
+	private static void writeImports (Appendable out, Array<Class<? extends Task>> classes) throws IOException {
 		classes.sort(new Comparator<Class<? extends Task>>() {
 			@Override public int compare (Class<? extends Task> o1, Class<? extends Task> o2) {
 				return o1.getSimpleName().compareTo(o2.getSimpleName());
 			}
 		});
 
-		StringBuilder sb = new StringBuilder("# Alias definitions\n");
+		out.append("# Alias definitions\n");
 
 		for (Class<? extends Task> aClass : classes) {
-			sb.append("import ").append(getAlias(aClass)).append(":\"").append(aClass.getCanonicalName()).append("\"\n");
+			out.append(getImport(aClass));
 		}
-
-		writeGuards(sb, taskToGuard);
-
-		sb.append("\nroot\n");
-		writeTask(sb, task, 1, taskToGuard);
-		return sb.toString();
 	}
 
-
-	private static void writeGuards (StringBuilder sb, ObjectMap<Task, GuardHolder> taskToGuard) {
+	private static void writeGuards (Appendable out, ObjectMap<Task, GuardHolder> taskToGuard, ObjectMap<Task, String> comments)
+		throws IOException {
 		Array<GuardHolder> sorted = new Array<>();
 		ObjectMap.Values<GuardHolder> values = taskToGuard.values();
 		for (GuardHolder value : values) {
@@ -93,10 +198,10 @@ public class BehaviorTreeWriter {
 		sorted.sort();
 
 		for (GuardHolder guard : sorted) {
-			sb.append("\nsubtree name:\"");
-			sb.append(guard.name);
-			sb.append("\"\n");
-			writeTask(sb, guard.guard, 1, taskToGuard);
+			out.append("\nsubtree name:\"");
+			out.append(guard.name);
+			out.append("\"\n");
+			writeTask(out, guard.guard, 1, taskToGuard, comments);
 		}
 	}
 
@@ -111,23 +216,29 @@ public class BehaviorTreeWriter {
 		}
 	}
 
-	private static void writeTask (StringBuilder sb, Task task, int depth, ObjectMap<Task, GuardHolder> taskToGuard) {
-		for (int i = 0; i < depth; i++) {
-			sb.append("  ");
+	private static void writeTask (Appendable out, Task task, int depth, ObjectMap<Task, GuardHolder> taskToGuard,
+		ObjectMap<Task, String> comments) throws IOException {
+		String comment = comments != null ? comments.get(task) : null;
+		if (comment != null) {
+			indent(out, depth);
+			out.append("# ");
+			out.append(comment);
+			out.append('\n');
 		}
+		indent(out, depth);
 		GuardHolder guard = taskToGuard.get(task);
 		if (guard != null){
-			sb.append("($");
-			sb.append(guard.name);
-			sb.append(") ");
+			out.append("($");
+			out.append(guard.name);
+			out.append(") ");
 		}
-		sb.append(getAlias(task.getClass()));
-		getTaskAttributes(sb, task);
-		sb.append("\n");
+		out.append(getAlias(task.getClass()));
+		getTaskAttributes(out, task);
+		out.append('\n');
 		// include may have a whole tree as child, ignore it
 		if (task instanceof Include) return;
 		for (int i = 0; i < task.getChildCount(); i++) {
-			writeTask(sb, task.getChild(i), depth + 1, taskToGuard);
+			writeTask(out, task.getChild(i), depth + 1, taskToGuard, comments);
 		}
 	}
 
@@ -137,82 +248,119 @@ public class BehaviorTreeWriter {
 	 * @return serialized tree
 	 */
 	public static String serialize(TaskModel task) {
-		Array<Class<? extends Task>> classes = new Array<>();
-		findClasses(task.getWrapped(), classes);
-		classes.sort(new Comparator<Class<? extends Task>>() {
-			@Override public int compare (Class<? extends Task> o1, Class<? extends Task> o2) {
-				return o1.getSimpleName().compareTo(o2.getSimpleName());
-			}
-		});
+		StringBuilder sb = new StringBuilder();
+		try {
+			serialize(task, sb);
+		} catch (IOException e) {
+			// StringBuilder doesn't throw
+			throw new GdxRuntimeException(e);
+		}
+		return sb.toString();
+	}
 
-		StringBuilder sb = new StringBuilder("# Alias definitions\n");
+	/**
+	 * Serialize the tree to parser readable format, encoded as UTF-8
+	 * Output is buffered and flushed, but not closed
+	 * @param task task to serialize
+	 * @param out stream to write to
+	 */
+	public static void serialize (TaskModel task, OutputStream out) throws IOException {
+		Writer writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"), BUFFER_SIZE);
+		serialize(task, writer);
+		writer.flush();
+	}
 
-		for (Class<? extends Task> aClass : classes) {
-			sb.append("import ").append(getAlias(aClass)).append(":\"").append(aClass.getCanonicalName()).append("\"\n");
-		}
+	/**
+	 * Serialize the tree to parser readable format, tree is written as it is traversed
+	 * @param task task to serialize
+	 * @param out where to write, should be buffered
+	 */
+	public static void serialize (TaskModel task, Appendable out) throws IOException {
+		Array<Class<? extends Task>> classes = new Array<>();
+		findClasses(task.getWrapped(), classes);
+		writeImports(out, classes);
 
-		sb.append("\nroot\n");
-		writeTask(sb, task, 1);
-		return sb.toString();
+		out.append("\nroot\n");
+		writeTask(out, task, 1);
 	}
 
-	private static void writeTask (StringBuilder sb, TaskModel modelTask, int depth) {
+	private static void writeTask (Appendable out, TaskModel modelTask, int depth) throws IOException {
 		if (modelTask.hasUserComment()) {
-			for (int i = 0; i < depth; i++) {
-				sb.append("  ");
-			}
-			sb.append("# ");
-			sb.append(modelTask.getUserComment());
-			sb.append('\n');
-		}
-		for (int i = 0; i < depth; i++) {
-			sb.append("  ");
+			indent(out, depth);
+			out.append("# ");
+			out.append(modelTask.getUserComment());
+			out.append('\n');
 		}
+		indent(out, depth);
 		Task task = modelTask.getWrapped();
-		sb.append(getAlias(task.getClass()));
-		getTaskAttributes(sb, task);
-		sb.append('\n');
+		out.append(getAlias(task.getClass()));
+		getTaskAttributes(out, task);
+		out.append('\n');
 		// include may have a whole tree as child, ignore it
 		if (task instanceof Include) return;
 		for (int i = 0; i < modelTask.getChildCount(); i++) {
-			writeTask(sb, modelTask.getChild(i), depth + 1);
+			writeTask(out, modelTask.getChild(i), depth + 1);
 		}
 	}
 
-	private static void getTaskAttributes (StringBuilder sb, Task task) {
-		Class<?> aClass = task.getClass();
-		Field[] fields = ClassReflection.getFields(aClass);
-		for (Field f : fields) {
-			Annotation a = f.getDeclaredAnnotation(TaskAttribute.class);
-			if (a == null)
-				continue;
-			TaskAttribute annotation = a.getAnnotation(TaskAttribute.class);
-			sb.append(" ");
-			getFieldString(sb, task, annotation, f);
+	private static final String[] indents = new String[32];
+	private static void indent (Appendable out, int depth) throws IOException {
+		if (depth >= indents.length) {
+			for (int i = 0; i < depth; i++) {
+				out.append("  ");
+			}
+			return;
+		}
+		String indent = indents[depth];
+		if (indent == null) {
+			char[] chars = new char[depth * 2];
+			Arrays.fill(chars, ' ');
+			indents[depth] = indent = new String(chars);
 		}
+		out.append(indent);
 	}
 
-	private static void getFieldString (StringBuilder sb, Task task, TaskAttribute ann, Field field) {
-		// prefer name from annotation if there is one
-		String name = ann.name();
-		if (name == null || name.length() == 0) {
-			name = field.getName();
+	private static void getTaskAttributes (Appendable out, Task task) throws IOException {
+		TaskClassInfo info = TaskClassInfo.get(task);
+		for (int i = 0, n = info.getAttributeCount(); i < n; i++) {
+			out.append(' ');
+			getFieldString(out, task, info.getAttribute(i));
 		}
-		sb.append(name);
+	}
+
+	private static void getFieldString (Appendable out, Task task, TaskClassInfo.Attribute attribute) throws IOException {
+		out.append(attribute.getName());
+		Class type = attribute.getType();
 		Object o;
 		try {
-			field.setAccessible(true);
-			o = field.get(task);
+			// primitives are read without boxing them
+			if (type == int.class) {
+				out.append(':').append(String.valueOf(attribute.getInt(task)));
+				return;
+			} else if (type == long.class) {
+				out.append(':').append(String.valueOf(attribute.getLong(task)));
+				return;
+			} else if (type == float.class) {
+				out.append(':').append(String.valueOf(attribute.getFloat(task)));
+				return;
+			} else if (type == double.class) {
+				out.append(':').append(String.valueOf(attribute.getDouble(task)));
+				return;
+			} else if (type == boolean.class) {
+				out.append(':').append(String.valueOf(attribute.getBoolean(task)));
+				return;
+			}
+			o = attribute.get(task);
 		} catch (ReflectionException e) {
 			Gdx.app.error("", "Failed to get field", e);
 			return;
 		}
-		if (field.getType().isEnum() || field.getType() == String.class) {
-			sb.append(":\"").append(o).append("\"");
-		} else if (Distribution.class.isAssignableFrom(field.getType())) {
-			sb.append(":\"").append(toParsableString((Distribution)o)).append("\"");
+		if (type.isEnum() || type == String.class) {
+			out.append(":\"").append(String.valueOf(o)).append('"');
+		} else if (Distribution.class.isAssignableFrom(type)) {
+			out.append(":\"").append(toParsableString((Distribution)o)).append('"');
 		} else {
-			sb.append(":").append(o);
+			out.append(':').append(String.valueOf(o));
 		}
 	}
 
@@ -225,9 +373,14 @@ public class BehaviorTreeWriter {
 	public static String toParsableString (Distribution distribution) {
 		if (distribution == null)
 			throw new IllegalArgumentException("Distribution cannot be null");
+		return getAdapters().toString(distribution);
+	}
+
+	// backups are serialized on the writer thread
+	private static synchronized DistributionAdapters getAdapters () {
 		if (adapters == null)
 			adapters = new DistributionAdapters();
-		return adapters.toString(distribution);
+		return adapters;
 	}
 
 	private static void findClasses (Task task, Array<Class<? extends Task>> classes) {
@@ -246,7 +399,19 @@ public class BehaviorTreeWriter {
 		}
 	}
 
-	private static ObjectMap<Class<? extends Task>, String> taskToAlias = new ObjectMap<>();
+	// only overrides, default aliases are in TaskClassInfo
+	private static ConcurrentHashMap<Class<? extends Task>, String> taskToAlias = new ConcurrentHashMap<>();
+	// import lines, they depend on alias so they are cleared when one is changed
+	private static ConcurrentHashMap<Class<? extends Task>, String> taskToImport = new ConcurrentHashMap<>();
+
+	private static String getImport (Class<? extends Task> aClass) {
+		String line = taskToImport.get(aClass);
+		if (line == null) {
+			line = "import " + getAlias(aClass) + ":\"" + aClass.getCanonicalName() + "\"\n";
+			taskToImport.put(aClass, line);
+		}
+		return line;
+	}
 
 	/**
 	 * Get alias for given {@link Task} generated from its class name
@@ -255,11 +420,9 @@ public class BehaviorTreeWriter {
 	 */
 	public static String getAlias (Class<? extends Task> aClass) {
 		if (aClass == null) throw new IllegalArgumentException("Class cannot be null");
-		String alias = taskToAlias.get(aClass, null);
+		String alias = taskToAlias.get(aClass);
 		if (alias == null) {
-			String name = aClass.getSimpleName();
-			alias = Character.toLowerCase(name.charAt(0)) + (name.length() > 1 ? name.substring(1) : "");
-			taskToAlias.put(aClass, alias);
+			alias = TaskClassInfo.get(aClass).getAlias();
 		}
 		return alias;
 	}
@@ -272,7 +435,12 @@ public class BehaviorTreeWriter {
 	 */
 	public static void setAlias (Class<? extends Task> aClass, String alias) {
 		if (aClass == null) throw new IllegalArgumentException("Class cannot be null");
-		taskToAlias.put(aClass, alias);
+		if (alias == null) {
+			taskToAlias.remove(aClass);
+		} else {
+			taskToAlias.put(aClass, alias);
+		}
+		taskToImport.remove(aClass);
 	}
 
 	private static class GuardHolder implements Comparable<GuardHolder> {
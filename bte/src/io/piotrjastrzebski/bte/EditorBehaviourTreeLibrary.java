@@ -4,14 +4,27 @@ import com.badlogic.gdx.Files;
 import com.badlogic.gdx.ai.GdxAI;
 import com.badlogic.gdx.ai.btree.BehaviorTree;
 import com.badlogic.gdx.ai.btree.Task;
+import com.badlogic.gdx.ai.btree.decorator.Include;
 import com.badlogic.gdx.ai.btree.utils.BehaviorTreeLibrary;
 import com.badlogic.gdx.ai.btree.utils.BehaviorTreeParser;
 import com.badlogic.gdx.ai.btree.utils.DistributionAdapters;
 import com.badlogic.gdx.assets.loaders.FileHandleResolver;
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.GdxRuntimeException;
+import com.badlogic.gdx.utils.ObjectIntMap;
 import com.badlogic.gdx.utils.ObjectMap;
+import com.badlogic.gdx.utils.ObjectSet;
+import com.badlogic.gdx.utils.StreamUtils;
 import io.piotrjastrzebski.bte.model.BehaviorTreeModel;
 import io.piotrjastrzebski.bte.model.tasks.TaskModel;
 
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
 /**
  * A {@code BehaviorTreeLibrary} is a repository of behavior tree archetypes. Behavior tree archetypes never run. Indeed, they are
  * only cloned to create behavior tree instances that can run. Has extra functionality useful for AIEditor
@@ -43,6 +56,501 @@ public class EditorBehaviourTreeLibrary extends BehaviorTreeLibrary {
 		editorParser.useEditorBehaviourTree = useEditorBehaviourTree;
 	}
 
+	protected Array<BehaviorTreeArchive> archives = new Array<>();
+
+	/**
+	 * Trees in the archive will be decoded from it when they are first needed, archives are checked before files
+	 * @param archive archive to load trees from
+	 */
+	public void addArchive (BehaviorTreeArchive archive) {
+		if (!archives.contains(archive, true)) {
+			archives.add(archive);
+		}
+	}
+
+	public boolean removeArchive (BehaviorTreeArchive archive) {
+		return archives.removeValue(archive, true);
+	}
+
+	// rough memory used by a parsed task with its attributes, used for cache budget
+	private static final int TASK_SIZE_ESTIMATE = 128;
+	// archetypes loaded from files and archives, trees registered from code are not managed
+	protected ObjectMap<String, CachedTree> cache = new ObjectMap<>();
+	// least recently used first, linked through cached trees so a hit doesn't have to search for it
+	protected CachedTree lruHead;
+	protected CachedTree lruTail;
+	// sources of evicted archetypes, tree loaded again from unchanged source keeps its version
+	protected ObjectMap<String, TreeSource> evicted = new ObjectMap<>();
+	protected long cacheBudget = 32 * 1024 * 1024;
+	protected long cacheSize;
+	protected int cacheHits;
+	protected int cacheMisses;
+	protected int cacheInvalidations;
+	protected int cacheEvictions;
+	// bumped each time an archetype or something it includes is registered or modified, so users of it know that it changed
+	protected ObjectIntMap<String> archetypeVersions = new ObjectIntMap<>();
+	protected int archetypeVersion;
+	// include dependency graph, reference -> references it includes and reference -> references that include it
+	protected ObjectMap<String, Array<String>> includes = new ObjectMap<>();
+	protected ObjectMap<String, Array<String>> dependents = new ObjectMap<>();
+	// references already visited in current walk of the graph, shared references are reachable through many paths
+	private final ObjectSet<String> checked = new ObjectSet<>();
+	private final ObjectSet<String> changed = new ObjectSet<>();
+	private final ObjectSet<String> searched = new ObjectSet<>();
+
+	/**
+	 * Trees are taken from added archives first, trees with {@link BehaviorTreeBinary#EXTENSION} are read as binary trees,
+	 * everything else is parsed
+	 *
+	 * Loaded archetypes are cached, cached tree is loaded again if its file was modified since, least recently used trees
+	 * are evicted when they take more memory than {@link #setCacheBudget(long)}
+	 */
+	@Override protected BehaviorTree<?> retrieveArchetypeTree (String treeReference) {
+		CachedTree cached = cache.get(treeReference);
+		if (cached != null) {
+			if (!cached.isModified()) {
+				cacheHits++;
+				unlink(cached);
+				linkLast(cached);
+				return cached.tree;
+			}
+			cacheInvalidations++;
+			uncache(cached);
+			archetypeChanged(treeReference);
+		} else {
+			BehaviorTree<?> registered = repository.get(treeReference);
+			if (registered != null) return registered;
+		}
+		cacheMisses++;
+
+		BehaviorTree<?> archetypeTree = null;
+		TreeSource source = null;
+		for (BehaviorTreeArchive archive : archives) {
+			if (archive.contains(treeReference)) {
+				archetypeTree = editorParser.createBehaviorTree(archive.read(treeReference, taskToComment), null);
+				source = new TreeSource(archive);
+				break;
+			}
+		}
+		if (archetypeTree == null) {
+			FileHandle fh = resolver.resolve(treeReference);
+			// stamp before reading, if file changes while we read it, it will be loaded again next time
+			source = new TreeSource(fh);
+			if (BehaviorTreeBinary.isBinary(treeReference)) {
+				archetypeTree = editorParser.createBehaviorTree(BehaviorTreeBinary.read(fh, taskToComment), null);
+			} else {
+				archetypeTree = editorParser.parse(fh, null);
+			}
+		}
+		TreeSource evictedSource = evicted.remove(treeReference);
+		if (evictedSource != null && evictedSource.isSame(source)) {
+			// same tree as before it was evicted, includes are already in the graph and versions stay as they are
+			super.registerArchetypeTree(treeReference, archetypeTree);
+		} else {
+			registerArchetypeTree(treeReference, archetypeTree);
+		}
+
+		cached = new CachedTree(treeReference, archetypeTree, source);
+		cached.size = countTasks(archetypeTree.getChild(0)) * TASK_SIZE_ESTIMATE;
+		cache.put(treeReference, cached);
+		linkLast(cached);
+		cacheSize += cached.size;
+		evict();
+		return archetypeTree;
+	}
+
+	/**
+	 * Trees registered from code are not cached, they replace cached tree with same reference
+	 *
+	 * Includes of the tree are added to the dependency graph, archetypes that include this one directly or through other
+	 * includes get new version
+	 * @throws GdxRuntimeException if the tree would create an include cycle, tree is not registered in that case
+	 */
+	@Override public void registerArchetypeTree (String treeReference, BehaviorTree<?> archetypeTree) {
+		if (archetypeTree == null) throw new IllegalArgumentException("The registered archetype must not be null.");
+		Array<String> included = new Array<>();
+		collectIncludes(archetypeTree, included);
+		for (int i = 0; i < included.size; i++) {
+			searched.clear();
+			String cycle = findIncludePath(included.get(i), treeReference);
+			if (cycle != null) {
+				throw new GdxRuntimeException("Include cycle in " + treeReference + ": " + treeReference + " -> " + cycle);
+			}
+		}
+		CachedTree cached = cache.get(treeReference);
+		if (cached != null && cached.tree != archetypeTree) {
+			uncache(cached);
+		}
+		evicted.remove(treeReference);
+		super.registerArchetypeTree(treeReference, archetypeTree);
+		setIncludes(treeReference, included);
+		archetypeChanged(treeReference);
+	}
+
+	private static void collectIncludes (Task<?> task, Array<String> out) {
+		if (task instanceof Include) {
+			String subtree = ((Include)task).subtree;
+			if (subtree != null && !out.contains(subtree, false)) {
+				out.add(subtree);
+			}
+		}
+		if (task.getGuard() != null) {
+			collectIncludes(task.getGuard(), out);
+		}
+		for (int i = 0; i < task.getChildCount(); i++) {
+			collectIncludes(task.getChild(i), out);
+		}
+	}
+
+	/**
+	 * References in {@link #searched} are skipped, target is not reachable from them
+	 * @return path of references from given one to target or null if target is not included from it
+	 */
+	private String findIncludePath (String from, String target) {
+		if (from.equals(target)) return from;
+		if (!searched.add(from)) return null;
+		Array<String> included = includes.get(from);
+		if (included == null) return null;
+		for (int i = 0; i < included.size; i++) {
+			String path = findIncludePath(included.get(i), target);
+			if (path != null) return from + " -> " + path;
+		}
+		return null;
+	}
+
+	private void setIncludes (String treeReference, Array<String> included) {
+		Array<String> old = includes.remove(treeReference);
+		if (old != null) {
+			for (int i = 0; i < old.size; i++) {
+				Array<String> deps = dependents.get(old.get(i));
+				if (deps != null && deps.removeValue(treeReference, false) && deps.size == 0) {
+					dependents.remove(old.get(i));
+				}
+			}
+		}
+		if (included.size == 0) return;
+		includes.put(treeReference, included);
+		for (int i = 0; i < included.size; i++) {
+			Array<String> deps = dependents.get(included.get(i));
+			if (deps == null) {
+				deps = new Array<>(4);
+				dependents.put(included.get(i), deps);
+			}
+			deps.add(treeReference);
+		}
+	}
+
+	/**
+	 * Bump version of the archetype and of all archetypes that include it, directly or not
+	 */
+	private void archetypeChanged (String treeReference) {
+		changed.clear();
+		bumpVersion(treeReference);
+	}
+
+	private void bumpVersion (String treeReference) {
+		if (!changed.add(treeReference)) return;
+		archetypeVersions.put(treeReference, ++archetypeVersion);
+		Array<String> deps = dependents.get(treeReference);
+		if (deps == null) return;
+		for (int i = 0; i < deps.size; i++) {
+			bumpVersion(deps.get(i));
+		}
+	}
+
+	/**
+	 * @param treeReference reference of the archetype
+	 * @return references of archetypes that include given one directly, or null if there are none, must not be modified
+	 */
+	public Array<String> getDependents (String treeReference) {
+		return dependents.get(treeReference);
+	}
+
+	/**
+	 * @param treeReference reference of the archetype
+	 * @return references included by given archetype, or null if there are none or it is not registered, must not be modified
+	 */
+	public Array<String> getIncludes (String treeReference) {
+		return includes.get(treeReference);
+	}
+
+	/**
+	 * Cheap check, archetype is not loaded, only files of cached archetype and archetypes it includes are checked for modifications
+	 * @param treeReference reference of the archetype
+	 * @return version of the archetype, changes each time the archetype or anything it includes is loaded, registered or modified
+	 */
+	public int getArchetypeVersion (String treeReference) {
+		checked.clear();
+		checkModified(treeReference);
+		return archetypeVersions.get(treeReference, 0);
+	}
+
+	private void checkModified (String treeReference) {
+		// each file is checked once, no matter how many paths lead to it
+		if (!checked.add(treeReference)) return;
+		CachedTree cached = cache.get(treeReference);
+		if (cached != null && cached.isModified()) {
+			cacheInvalidations++;
+			uncache(cached);
+			archetypeChanged(treeReference);
+		}
+		Array<String> included = includes.get(treeReference);
+		if (included == null) return;
+		for (int i = 0; i < included.size; i++) {
+			checkModified(included.get(i));
+		}
+	}
+
+	private void evict () {
+		// most recent tree is kept, even if it is over the budget by itself
+		while (cacheSize > cacheBudget && lruHead != lruTail) {
+			cacheEvictions++;
+			evict(lruHead);
+		}
+	}
+
+	private void evict (CachedTree cached) {
+		evicted.put(cached.reference, cached.source);
+		uncache(cached);
+	}
+
+	private void linkLast (CachedTree cached) {
+		cached.prev = lruTail;
+		cached.next = null;
+		if (lruTail != null) {
+			lruTail.next = cached;
+		} else {
+			lruHead = cached;
+		}
+		lruTail = cached;
+	}
+
+	private void unlink (CachedTree cached) {
+		if (cached.prev != null) {
+			cached.prev.next = cached.next;
+		} else {
+			lruHead = cached.next;
+		}
+		if (cached.next != null) {
+			cached.next.prev = cached.prev;
+		} else {
+			lruTail = cached.prev;
+		}
+		cached.prev = null;
+		cached.next = null;
+	}
+
+	private void uncache (CachedTree cached) {
+		cache.remove(cached.reference);
+		unlink(cached);
+		cacheSize -= cached.size;
+		if (repository.get(cached.reference) == cached.tree) {
+			repository.remove(cached.reference);
+		}
+		removeComments(cached.tree.getChild(0));
+	}
+
+	private void removeComments (Task<?> task) {
+		taskToComment.remove(task);
+		if (task.getGuard() != null) {
+			removeComments(task.getGuard());
+		}
+		for (int i = 0; i < task.getChildCount(); i++) {
+			removeComments(task.getChild(i));
+		}
+	}
+
+	private static int countTasks (Task<?> task) {
+		int count = 1;
+		if (task.getGuard() != null) {
+			count += countTasks(task.getGuard());
+		}
+		for (int i = 0; i < task.getChildCount(); i++) {
+			count += countTasks(task.getChild(i));
+		}
+		return count;
+	}
+
+	/**
+	 * @param budget estimated memory in bytes that cached archetypes can take, least recently used ones are evicted over it
+	 */
+	public void setCacheBudget (long budget) {
+		cacheBudget = budget;
+		evict();
+	}
+
+	public long getCacheBudget () {
+		return cacheBudget;
+	}
+
+	/**
+	 * @return estimated memory in bytes taken by cached archetypes
+	 */
+	public long getCacheSize () {
+		return cacheSize;
+	}
+
+	public int getCachedCount () {
+		return cache.size;
+	}
+
+	/**
+	 * @return number of archetypes taken from cache
+	 */
+	public int getCacheHits () {
+		return cacheHits;
+	}
+
+	/**
+	 * @return number of archetypes that had to be loaded
+	 */
+	public int getCacheMisses () {
+		return cacheMisses;
+	}
+
+	/**
+	 * @return number of cached archetypes dropped because their file was modified
+	 */
+	public int getCacheInvalidations () {
+		return cacheInvalidations;
+	}
+
+	/**
+	 * @return number of cached archetypes dropped to stay in the budget
+	 */
+	public int getCacheEvictions () {
+		return cacheEvictions;
+	}
+
+	public void resetCacheStats () {
+		cacheHits = 0;
+		cacheMisses = 0;
+		cacheInvalidations = 0;
+		cacheEvictions = 0;
+	}
+
+	/**
+	 * Remove all cached archetypes, they will be loaded again when needed
+	 */
+	public void clearCache () {
+		while (lruTail != null) {
+			evict(lruTail);
+		}
+	}
+
+	protected static class CachedTree {
+		public final String reference;
+		public final BehaviorTree<?> tree;
+		public final TreeSource source;
+		public long size;
+		protected CachedTree prev;
+		protected CachedTree next;
+
+		public CachedTree (String reference, BehaviorTree<?> tree, TreeSource source) {
+			this.reference = reference;
+			this.tree = tree;
+			this.source = source;
+		}
+
+		/**
+		 * @return if file of the tree changed since it was loaded
+		 */
+		public boolean isModified () {
+			return source.isModified();
+		}
+
+		@Override public String toString () {
+			return "CachedTree{" + reference + ", size=" + size + "}";
+		}
+	}
+
+	/**
+	 * Where an archetype was loaded from, file with its modification time and length at the time or an archive
+	 */
+	protected static class TreeSource {
+		// null if tree is from an archive
+		public final FileHandle file;
+		// null if tree is from a file
+		public final BehaviorTreeArchive archive;
+		public final long lastModified;
+		public final long length;
+
+		public TreeSource (FileHandle file) {
+			this.file = file;
+			archive = null;
+			lastModified = file.lastModified();
+			length = file.length();
+		}
+
+		public TreeSource (BehaviorTreeArchive archive) {
+			file = null;
+			this.archive = archive;
+			lastModified = 0;
+			length = 0;
+		}
+
+		/**
+		 * @return if file changed since it was stamped, archives don't change
+		 */
+		public boolean isModified () {
+			return file != null && (file.lastModified() != lastModified || file.length() != length);
+		}
+
+		/**
+		 * @return if other source is the same file, with same stamp, or the same archive
+		 */
+		public boolean isSame (TreeSource other) {
+			if (file == null) return other.file == null && archive == other.archive;
+			return other.file != null && file.equals(other.file) && lastModified == other.lastModified && length == other.length;
+		}
+	}
+
+	/**
+	 * Pack archetypes of given trees, with user comments, into a single archive
+	 * @param treeReferences trees to pack, they will be available under same references
+	 * @param fh archive file to write
+	 */
+	public void pack (Array<String> treeReferences, FileHandle fh) {
+		Array<byte[]> trees = new Array<>();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (String treeReference : treeReferences) {
+			BehaviorTree<?> tree = retrieveArchetypeTree(treeReference);
+			out.reset();
+			try {
+				BehaviorTreeBinary.write(tree.getChild(0), taskToComment, out);
+			} catch (IOException e) {
+				throw new GdxRuntimeException("Failed to pack " + treeReference, e);
+			}
+			trees.add(out.toByteArray());
+		}
+		BehaviorTreeArchive.write(fh, treeReferences, trees);
+	}
+
+	/**
+	 * Save archetype of given tree, with user comments, in format based on extension of the target file
+	 * Can be used to convert text trees to binary ones and back, file is replaced only once the tree is written
+	 * @param treeReference tree to convert
+	 * @param fh file to save to, binary if it has {@link BehaviorTreeBinary#EXTENSION}, text otherwise
+	 */
+	public void convert (String treeReference, FileHandle fh) {
+		BehaviorTree<?> tree = retrieveArchetypeTree(treeReference);
+		if (BehaviorTreeBinary.isBinary(fh.name())) {
+			BehaviorTreeBinary.write(tree, taskToComment, fh);
+			return;
+		}
+		AtomicFileOutputStream out = new AtomicFileOutputStream(fh, 0);
+		try {
+			Writer writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
+			BehaviorTreeWriter.serialize(tree.getChild(0), taskToComment, writer);
+			writer.flush();
+			out.commit();
+		} catch (IOException e) {
+			throw new GdxRuntimeException("Error writing file: " + fh, e);
+		} finally {
+			StreamUtils.closeQuietly(out);
+		}
+	}
+
 	public <T> BehaviorTree<T> createBehaviorTree (String treeReference, T blackboard) {
 		BehaviorTree<T> bt = (BehaviorTree<T>)retrieveArchetypeTree(treeReference);
 		BehaviorTree<T> cbt = (BehaviorTree<T>)bt.cloneTask();
@@ -109,8 +617,9 @@ public class EditorBehaviourTreeLibrary extends BehaviorTreeLibrary {
 			super.endStatement();
 			if (prevTask != null && lastComment != null) {
 				taskToComment.put(prevTask.task, lastComment);
-				lastComment = null;
 			}
+			// comment belongs to this statement, dont leak comments of imports and such to next task
+			lastComment = null;
 		}
 	}
 
@@ -0,0 +1,433 @@
+package io.piotrjastrzebski.bte.model;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.GdxRuntimeException;
+import com.badlogic.gdx.utils.ObjectMap;
+import com.badlogic.gdx.utils.StreamUtils;
+import com.badlogic.gdx.utils.TimeUtils;
+import io.piotrjastrzebski.bte.AtomicFileOutputStream;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Directory of tree backups with a retention policy
+ *
+ * Backups are named {@code <name>_<revision>.tree}, or {@code <name>_<revision>.tree.z} if compressed
+ * Revision is a 64 bit hash written as 16 hex digits, storing a backup that already exists only marks it as used
+ * Only files named like that are treated as backups, other files in the directory are never deleted
+ * Content is streamed to a temporary file that replaces the backup once it is complete
+ * When there are more backups than allowed by count or size budget, least recently used ones are deleted
+ * Backups older than max age are deleted as well, if it is set
+ *
+ * Directory is listed once, when store is first used, so restoring a backup doesn't touch other files
+ * All methods are synchronized, store can be used from the backup writer thread and the main thread
+ */
+public class BackupStore {
+	private static final String TAG = BackupStore.class.getSimpleName();
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	public static final String EXTENSION = ".tree";
+	public static final String COMPRESSED_EXTENSION = ".tree.z";
+	/**
+	 * Number of hex digits in a revision
+	 */
+	public static final int REVISION_LENGTH = 16;
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+	private static final int BUFFER_SIZE = 8192;
+
+	private final FileHandle dir;
+	private final ObjectMap<String, Entry> entries = new ObjectMap<>();
+	private final Array<Entry> lru = new Array<>();
+	private boolean indexed;
+	private long totalSize;
+	private int maxCount = 500;
+	private long maxSize = 64 * 1024 * 1024;
+	private long maxAge;
+	private boolean compress;
+	private MessageDigest digest;
+
+	/**
+	 * @param dir directory backups will be saved to, created if it doesn't exist
+	 */
+	public BackupStore (FileHandle dir) {
+		if (dir == null) throw new IllegalArgumentException("Backup directory cannot be null!");
+		this.dir = dir;
+	}
+
+	/**
+	 * Writes serialized tree of a backup
+	 */
+	public interface Content {
+		/**
+		 * @param out stream to write to, it must not be closed
+		 */
+		void write (OutputStream out) throws IOException;
+	}
+
+	/**
+	 * Store a backup, revision is a hash of the content, computed as it is written
+	 * If backup with same name and content exists, it is marked as used and written content is discarded
+	 * @param name name of the tree or null
+	 * @param content writes serialized tree
+	 * @return entry of stored backup
+	 */
+	public synchronized Entry store (String name, Content content) {
+		index();
+		if (name == null) name = "tree";
+		if (!dir.exists()) {
+			dir.mkdirs();
+		}
+		String extension = compress ? COMPRESSED_EXTENSION : EXTENSION;
+		// name of the backup is known only after it is written
+		AtomicFileOutputStream file = new AtomicFileOutputStream(dir.child(name + extension), BUFFER_SIZE);
+		try {
+			String revision = write(file, content, getDigest());
+			String key = name + "_" + revision;
+			Entry entry = entries.get(key);
+			if (entry != null) {
+				touch(entry);
+				return entry;
+			}
+			FileHandle target = dir.child(key + extension);
+			file.commit(target);
+			return added(name, revision, target);
+		} catch (IOException ex) {
+			throw new GdxRuntimeException("Error writing backup of " + name + " to " + dir, ex);
+		} finally {
+			StreamUtils.closeQuietly(file);
+		}
+	}
+
+	/**
+	 * Store a backup, if backup with same name and revision exists, it is marked as used and content is not written
+	 * @param name name of the tree or null
+	 * @param revision revision of the tree, see {@link #revision(long)}
+	 * @param content writes serialized tree
+	 * @return entry of stored backup
+	 */
+	public synchronized Entry store (String name, String revision, Content content) {
+		if (!isRevision(revision)) throw new IllegalArgumentException("Invalid revision: " + revision);
+		index();
+		if (name == null) name = "tree";
+		String key = name + "_" + revision;
+		Entry entry = entries.get(key);
+		if (entry != null) {
+			touch(entry);
+			return entry;
+		}
+		if (!dir.exists()) {
+			dir.mkdirs();
+		}
+		FileHandle target = dir.child(key + (compress ? COMPRESSED_EXTENSION : EXTENSION));
+		AtomicFileOutputStream file = new AtomicFileOutputStream(target, BUFFER_SIZE);
+		try {
+			write(file, content, null);
+			file.commit();
+		} catch (IOException ex) {
+			throw new GdxRuntimeException("Error writing backup: " + target, ex);
+		} finally {
+			StreamUtils.closeQuietly(file);
+		}
+		return added(name, revision, target);
+	}
+
+	/**
+	 * @return revision from the digest if one is given, null otherwise
+	 */
+	private String write (OutputStream file, Content content, MessageDigest digest) throws IOException {
+		Deflater deflater = compress ? new Deflater() : null;
+		try {
+			DeflaterOutputStream deflated = null;
+			OutputStream out = file;
+			if (deflater != null) {
+				out = deflated = new DeflaterOutputStream(file, deflater, BUFFER_SIZE);
+			}
+			if (digest != null) {
+				// hash of uncompressed content, so it doesn't matter if backups are compressed
+				digest.reset();
+				out = new DigestOutputStream(out, digest);
+			}
+			content.write(out);
+			out.flush();
+			if (deflated != null) {
+				deflated.finish();
+			}
+		} finally {
+			if (deflater != null) {
+				deflater.end();
+			}
+		}
+		if (digest == null) return null;
+		byte[] hash = digest.digest();
+		long value = 0;
+		// 64 bits is plenty to tell revisions apart
+		for (int i = 0; i < 8; i++) {
+			value = value << 8 | (hash[i] & 0xff);
+		}
+		return revision(value);
+	}
+
+	private Entry added (String name, String revision, FileHandle file) {
+		Entry entry = new Entry(name, revision, file, file.length(), TimeUtils.millis());
+		add(name + "_" + revision, entry);
+		evict();
+		return entry;
+	}
+
+	/**
+	 * Mark backup as used if it exists
+	 * @param name name of the tree or null
+	 * @param revision revision of the tree
+	 * @return if backup exists
+	 */
+	public synchronized boolean touch (String name, String revision) {
+		index();
+		if (name == null) name = "tree";
+		Entry entry = entries.get(name + "_" + revision);
+		if (entry == null) return false;
+		touch(entry);
+		return true;
+	}
+
+	/**
+	 * @return content of the backup or null if there is no such backup
+	 */
+	public synchronized String restore (String name, String revision) {
+		index();
+		if (name == null) name = "tree";
+		Entry entry = entries.get(name + "_" + revision);
+		if (entry == null) return null;
+		return restore(entry);
+	}
+
+	/**
+	 * @return content of the backup, backup is marked as used
+	 */
+	public synchronized String restore (Entry entry) {
+		String content;
+		if (entry.file.name().endsWith(COMPRESSED_EXTENSION)) {
+			InputStream is = null;
+			try {
+				is = new InflaterInputStream(entry.file.read());
+				content = new String(StreamUtils.copyStreamToByteArray(is, (int)entry.size * 4), UTF_8);
+			} catch (IOException ex) {
+				throw new GdxRuntimeException("Error reading backup: " + entry.file, ex);
+			} finally {
+				StreamUtils.closeQuietly(is);
+			}
+		} else {
+			content = entry.file.readString("UTF-8");
+		}
+		touch(entry);
+		return content;
+	}
+
+	/**
+	 * @param name name of the tree or null for all trees
+	 * @param out array entries will be added to, most recently used first
+	 * @return out array
+	 */
+	public synchronized Array<Entry> getEntries (String name, Array<Entry> out) {
+		index();
+		for (int i = lru.size - 1; i >= 0; i--) {
+			Entry entry = lru.get(i);
+			if (name == null || name.equals(entry.name)) {
+				out.add(entry);
+			}
+		}
+		return out;
+	}
+
+	private void index () {
+		if (indexed) return;
+		indexed = true;
+		if (!dir.exists()) return;
+		for (FileHandle file : dir.list()) {
+			String fileName = file.name();
+			String key;
+			if (fileName.endsWith(COMPRESSED_EXTENSION)) {
+				key = fileName.substring(0, fileName.length() - COMPRESSED_EXTENSION.length());
+			} else if (fileName.endsWith(EXTENSION)) {
+				key = fileName.substring(0, fileName.length() - EXTENSION.length());
+			} else {
+				continue;
+			}
+			int split = key.lastIndexOf('_');
+			// not written by the store, it must be left alone
+			if (split <= 0 || !isRevision(key.substring(split + 1))) continue;
+			Entry entry = new Entry(key.substring(0, split), key.substring(split + 1), file, file.length(), file.lastModified());
+			Entry old = entries.get(key);
+			if (old != null) {
+				// both compressed and plain versions exist, keep the newer one
+				if (old.lastUsed >= entry.lastUsed) {
+					file.delete();
+					continue;
+				}
+				remove(old);
+				old.file.delete();
+			}
+			add(key, entry);
+		}
+		lru.sort();
+		evict();
+	}
+
+	private void add (String key, Entry entry) {
+		entries.put(key, entry);
+		lru.add(entry);
+		totalSize += entry.size;
+	}
+
+	private void remove (Entry entry) {
+		entries.remove(entry.name + "_" + entry.revision);
+		lru.removeValue(entry, true);
+		totalSize -= entry.size;
+	}
+
+	private void touch (Entry entry) {
+		entry.lastUsed = TimeUtils.millis();
+		if (!entry.file.file().setLastModified(entry.lastUsed)) {
+			Gdx.app.debug(TAG, "Failed to update last modified time of " + entry.file);
+		}
+		// most recently used entries are at the end
+		lru.removeValue(entry, true);
+		lru.add(entry);
+	}
+
+	private void evict () {
+		long now = TimeUtils.millis();
+		while (lru.size > 0) {
+			Entry oldest = lru.first();
+			boolean tooOld = maxAge > 0 && now - oldest.lastUsed > maxAge;
+			// we always keep the latest backup
+			if (lru.size > 1 && (tooOld || lru.size > maxCount || totalSize > maxSize)) {
+				remove(oldest);
+				oldest.file.delete();
+			} else {
+				break;
+			}
+		}
+	}
+
+	private MessageDigest getDigest () {
+		if (digest == null) {
+			try {
+				digest = MessageDigest.getInstance("SHA-1");
+			} catch (NoSuchAlgorithmException ex) {
+				// every java platform has to support it
+				throw new GdxRuntimeException(ex);
+			}
+		}
+		return digest;
+	}
+
+	/**
+	 * @param hash hash of the tree
+	 * @return revision for given hash, {@link #REVISION_LENGTH} lower case hex digits
+	 */
+	public static String revision (long hash) {
+		char[] chars = new char[REVISION_LENGTH];
+		for (int i = REVISION_LENGTH - 1; i >= 0; i--) {
+			chars[i] = HEX_DIGITS[(int)(hash & 0xF)];
+			hash >>>= 4;
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * @return if given string is a revision made by {@link #revision(long)}
+	 */
+	public static boolean isRevision (String revision) {
+		if (revision == null || revision.length() != REVISION_LENGTH) return false;
+		for (int i = 0; i < REVISION_LENGTH; i++) {
+			char c = revision.charAt(i);
+			if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @param maxCount max number of backups in the directory, default is 500
+	 */
+	public synchronized void setMaxCount (int maxCount) {
+		this.maxCount = Math.max(maxCount, 1);
+		if (indexed) evict();
+	}
+
+	/**
+	 * @param maxSize max total size in bytes of backups in the directory, default is 64MB
+	 */
+	public synchronized void setMaxSize (long maxSize) {
+		this.maxSize = Math.max(maxSize, 0);
+		if (indexed) evict();
+	}
+
+	/**
+	 * @param maxAge max time in milliseconds since backup was last used, 0 to keep backups regardless of age, default is 0
+	 */
+	public synchronized void setMaxAge (long maxAge) {
+		this.maxAge = Math.max(maxAge, 0);
+		if (indexed) evict();
+	}
+
+	/**
+	 * @param compress if new backups should be compressed with deflate, default is false
+	 */
+	public synchronized void setCompress (boolean compress) {
+		this.compress = compress;
+	}
+
+	public synchronized int getCount () {
+		index();
+		return lru.size;
+	}
+
+	public synchronized long getTotalSize () {
+		index();
+		return totalSize;
+	}
+
+	public FileHandle getDirectory () {
+		return dir;
+	}
+
+	public static class Entry implements Comparable<Entry> {
+		public final String name;
+		public final String revision;
+		public final FileHandle file;
+		public final long size;
+		protected long lastUsed;
+
+		protected Entry (String name, String revision, FileHandle file, long size, long lastUsed) {
+			this.name = name;
+			this.revision = revision;
+			this.file = file;
+			this.size = size;
+			this.lastUsed = lastUsed;
+		}
+
+		public long getLastUsed () {
+			return lastUsed;
+		}
+
+		@Override public int compareTo (Entry o) {
+			return lastUsed < o.lastUsed ? -1 : (lastUsed == o.lastUsed ? 0 : 1);
+		}
+
+		@Override public String toString () {
+			return "Entry{" +
+				"name='" + name + '\'' +
+				", revision='" + revision + '\'' +
+				", size=" + size +
+				'}';
+		}
+	}
+}
@@ -0,0 +1,196 @@
+package io.piotrjastrzebski.bte.model;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.ai.btree.Task;
+import com.badlogic.gdx.utils.Disposable;
+import com.badlogic.gdx.utils.ObjectMap;
+import com.badlogic.gdx.utils.TimeUtils;
+import io.piotrjastrzebski.bte.BehaviorTreeBinary;
+import io.piotrjastrzebski.bte.BehaviorTreeWriter;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Writes tree backups on a background thread
+ *
+ * Backups are requested after each modification, but a snapshot is submitted only after there were no new requests
+ * for the quiet period, so a burst of edits results in a single write
+ * Requests that were replaced by a newer one before they were written are counted as dropped
+ * Snapshots are written to a {@link BackupStore}, which takes care of deduplication and retention
+ * Store is only used on the writer thread, revisions that already have a backup are marked as used there
+ * Snapshot is a tree in {@link BehaviorTreeBinary} format, it is streamed to the store as text on the writer thread
+ */
+public class BackupWriter implements Disposable {
+	private static final String TAG = BackupWriter.class.getSimpleName();
+
+	private final ExecutorService executor;
+	// latest snapshot that was not picked up by the writer thread yet
+	private final AtomicReference<Snapshot> next = new AtomicReference<>();
+	private final AtomicInteger pending = new AtomicInteger();
+	private final AtomicInteger written = new AtomicInteger();
+	private final AtomicInteger dropped = new AtomicInteger();
+	private long quietPeriod = 1000;
+	private long requestedAt;
+	private boolean requested;
+
+	public BackupWriter () {
+		executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override public Thread newThread (Runnable r) {
+				Thread thread = new Thread(r, TAG);
+				thread.setDaemon(true);
+				thread.setPriority(Thread.MIN_PRIORITY);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Request a backup, previous request that was not submitted yet is dropped
+	 */
+	public void request () {
+		if (requested) {
+			dropped.incrementAndGet();
+		} else {
+			pending.incrementAndGet();
+		}
+		requested = true;
+		requestedAt = TimeUtils.millis();
+	}
+
+	/**
+	 * Drop current request, if there is one
+	 */
+	public void cancel () {
+		if (requested) {
+			requested = false;
+			pending.decrementAndGet();
+			dropped.incrementAndGet();
+		}
+	}
+
+	/**
+	 * @return if there is a request and quiet period since it was made passed
+	 */
+	public boolean isSnapshotDue () {
+		return requested && TimeUtils.timeSinceMillis(requestedAt) >= quietPeriod;
+	}
+
+	/**
+	 * Submit snapshot for current request, it will be converted to text and written on the background thread
+	 * @param store store backup will be written to
+	 * @param name name of the tree or null
+	 * @param revision revision of the tree, or null to use hash of the content
+	 * @param tree tree in {@link BehaviorTreeBinary} format, with comments, must not be modified after this call
+	 */
+	public void submit (BackupStore store, String name, String revision, byte[] tree) {
+		Snapshot snapshot = new Snapshot(store, name, revision, tree);
+		if (!requested) {
+			pending.incrementAndGet();
+		}
+		requested = false;
+		Snapshot old = next.getAndSet(snapshot);
+		if (old != null) {
+			// writer didn't get to it yet, newer one is good enough
+			pending.decrementAndGet();
+			dropped.incrementAndGet();
+		}
+		executor.execute(drain);
+	}
+
+	private final Runnable drain = new Runnable() {
+		@Override public void run () {
+			Snapshot snapshot = next.getAndSet(null);
+			if (snapshot == null) return;
+			try {
+				// if there is a backup of the revision, it is only marked as used and snapshot is not converted
+				if (snapshot.revision != null) {
+					snapshot.store.store(snapshot.name, snapshot.revision, snapshot);
+				} else {
+					snapshot.store.store(snapshot.name, snapshot);
+				}
+				written.incrementAndGet();
+			} catch (RuntimeException ex) {
+				// invalid snapshot or failed write, next backup may succeed
+				Gdx.app.error(TAG, "Backup failed", ex);
+				dropped.incrementAndGet();
+			} finally {
+				pending.decrementAndGet();
+			}
+		}
+	};
+
+	/**
+	 * @param quietPeriod time in milliseconds without new requests after which snapshot should be taken
+	 */
+	public void setQuietPeriod (long quietPeriod) {
+		this.quietPeriod = Math.max(quietPeriod, 0);
+	}
+
+	public long getQuietPeriod () {
+		return quietPeriod;
+	}
+
+	/**
+	 * @return number of requested backups that were not written or dropped yet
+	 */
+	public int getPendingCount () {
+		return pending.get();
+	}
+
+	/**
+	 * @return number of backups passed to the store, including ones that already existed
+	 */
+	public int getWrittenCount () {
+		return written.get();
+	}
+
+	/**
+	 * @return number of requested backups that were coalesced with newer ones or failed
+	 */
+	public int getDroppedCount () {
+		return dropped.get();
+	}
+
+	/**
+	 * Waits for submitted snapshots to be written and stops the writer thread
+	 * Request that was not submitted is dropped
+	 */
+	@Override public void dispose () {
+		cancel();
+		executor.shutdown();
+		try {
+			executor.awaitTermination(5, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static class Snapshot implements BackupStore.Content {
+		final BackupStore store;
+		final String name;
+		final String revision;
+		final byte[] tree;
+
+		Snapshot (BackupStore store, String name, String revision, byte[] tree) {
+			this.store = store;
+			this.name = name;
+			this.revision = revision;
+			this.tree = tree;
+		}
+
+		@Override public void write (OutputStream out) throws IOException {
+			// decoded tree is our own copy, so it is safe to walk it on this thread
+			ObjectMap<Task, String> comments = new ObjectMap<>();
+			Task root = BehaviorTreeBinary.read(new ByteArrayInputStream(tree), comments);
+			BehaviorTreeWriter.serialize(root, comments, out);
+		}
+	}
+}
@@ -7,17 +7,28 @@ import com.badlogic.gdx.ai.btree.utils.BehaviorTreeLibrary;
 import com.badlogic.gdx.ai.btree.utils.BehaviorTreeLibraryManager;
 import com.badlogic.gdx.files.FileHandle;
 import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.GdxRuntimeException;
+import com.badlogic.gdx.utils.IdentityMap;
 import com.badlogic.gdx.utils.ObjectIntMap;
+import com.badlogic.gdx.utils.ObjectMap;
+import com.badlogic.gdx.utils.ObjectSet;
+import com.badlogic.gdx.utils.TimeUtils;
+import io.piotrjastrzebski.bte.BehaviorTreeBinary;
 import io.piotrjastrzebski.bte.BehaviorTreeWriter;
 import io.piotrjastrzebski.bte.EditorBehaviourTreeLibrary;
 import io.piotrjastrzebski.bte.model.edit.AddCommand;
+import io.piotrjastrzebski.bte.model.edit.Command;
 import io.piotrjastrzebski.bte.model.edit.CommandManager;
 import io.piotrjastrzebski.bte.model.edit.MoveCommand;
 import io.piotrjastrzebski.bte.model.edit.RemoveCommand;
 import io.piotrjastrzebski.bte.model.tasks.FakeRootModel;
+import io.piotrjastrzebski.bte.model.tasks.IncludeModel;
 import io.piotrjastrzebski.bte.model.tasks.ReflectionUtils;
 import io.piotrjastrzebski.bte.model.tasks.TaskModel;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
 /**
  * Created by EvilEntity on 04/02/2016.
  */
@@ -29,14 +40,28 @@ public class BehaviorTreeModel implements BehaviorTree.Listener {
 	private FakeRootModel fakeRoot;
 	private TaskModel root;
 	private CommandManager commands;
+	private BackupWriter backups;
+	private CommandJournal journal;
+	// changes are not recorded while journal is replayed, listeners rebuild everything after it
+	private boolean replaying;
 	private boolean dirty;
 	private boolean valid;
 	private boolean initialized;
 	private boolean rebuild;
+	private boolean debugChecks;
+	// wrapped task -> model task, so we dont have to search the tree for each status update
+	private IdentityMap<Task, TaskModel> taskToModel = new IdentityMap<>();
+	// includes in the tree, checked periodically for changes of their subtrees
+	private ObjectSet<IncludeModel> includes = new ObjectSet<>();
+	private static final long INCLUDE_CHECK_INTERVAL = 1000;
+	private long nextIncludeCheck;
+	// changes since last notification
+	private Array<ModelChange> changes = new Array<>();
 
 	public BehaviorTreeModel () {
 		commands = new CommandManager();
 		fakeRoot = new FakeRootModel();
+		backups = new BackupWriter();
 	}
 
 	@SuppressWarnings("unchecked")
@@ -54,16 +79,22 @@ public class BehaviorTreeModel implements BehaviorTree.Listener {
 		root = TaskModel.wrap(tree.getChild(0), this);
 		fakeRoot.init(root, this);
 		valid = root.isValid();
+		if (journal != null) {
+			journal.start(root.getHash());
+		}
 		// notify last so we are setup
 		for (ModelChangeListener listener : listeners) {
 			listener.onInit(this);
 		}
+		// listeners rebuild everything on init
+		clearChanges();
 	}
 
 	@SuppressWarnings("unchecked")
 	public void reset () {
 		initialized = false;
 		commands.reset();
+		backups.cancel();
 		if (tree != null) {
 			tree.listeners.removeValue(this, true);
 		}
@@ -72,6 +103,10 @@ public class BehaviorTreeModel implements BehaviorTree.Listener {
 			listener.onReset(this);
 		}
 		TaskModel.free(fakeRoot);
+		// anything left in here is not in the tree anymore
+		taskToModel.clear();
+		includes.clear();
+		clearChanges();
 		tree = null;
 		if (eTree != null) {
 			eTree.setEdited(false);
@@ -82,6 +117,13 @@ public class BehaviorTreeModel implements BehaviorTree.Listener {
 		valid = false;
 	}
 
+	/**
+	 * @return undo history of this model, its limits can be changed
+	 */
+	public CommandManager getCommandManager () {
+		return commands;
+	}
+
 	public TaskModel getRoot () {
 		if (!initialized) return null;
 		return fakeRoot;
@@ -100,11 +142,7 @@ public class BehaviorTreeModel implements BehaviorTree.Listener {
 		if (!canAddBefore(what, target)) return;
 		TaskModel parent = target.getParent();
 		int id = parent.getChildId(target);
-
-		commands.execute(AddCommand.obtain(id, what, parent));
-		tree.reset();
-		dirty = true;
-		notifyChanged();
+		execute(AddCommand.obtain(id, what, parent));
 	}
 
 	public boolean canAddAfter (TaskModel what, TaskModel target) {
@@ -119,10 +157,7 @@ public class BehaviorTreeModel implements BehaviorTree.Listener {
 		if (!canAddAfter(what, target)) return;
 		TaskModel parent = target.getParent();
 		int id = parent.getChildId(target);
-		commands.execute(AddCommand.obtain(id + 1, what, parent));
-		tree.reset();
-		dirty = true;
-		notifyChanged();
+		execute(AddCommand.obtain(id + 1, what, parent));
 	}
 
 	/**
@@ -138,10 +173,7 @@ public class BehaviorTreeModel implements BehaviorTree.Listener {
 	 */
 	public void add (TaskModel what, TaskModel target) {
 		if (!canAdd(what, target)) return;
-		dirty = true;
-		commands.execute(AddCommand.obtain(what, target));
-		tree.reset();
-		notifyChanged();
+		execute(AddCommand.obtain(what, target));
 	}
 
 	public boolean canMoveBefore (TaskModel what, TaskModel target) {
@@ -179,9 +211,7 @@ public class BehaviorTreeModel implements BehaviorTree.Listener {
 		if (!canMoveBefore(what, target)) return;
 		TaskModel parent = target.getParent();
 		int id = parent.getChildId(target);
-		commands.execute(MoveCommand.obtain(id, what, parent));
-		dirty = true;
-		notifyChanged();
+		execute(MoveCommand.obtain(id, what, parent));
 	}
 
 	/**
@@ -189,35 +219,102 @@ public class BehaviorTreeModel implements BehaviorTree.Listener {
 	 */
 	public void move (TaskModel what, TaskModel target) {
 		if (!canMove(what, target)) return;
-		commands.execute(MoveCommand.obtain(what, target));
-		tree.reset();
-		dirty = true;
-		notifyChanged();
+		execute(MoveCommand.obtain(what, target));
 	}
 
 	public void moveAfter (TaskModel what, TaskModel target) {
 		if (!canMoveAfter(what, target)) return;
 		TaskModel parent = target.getParent();
 		int id = parent.getChildId(target);
-		commands.execute(MoveCommand.obtain(id + 1, what, parent));
-		dirty = true;
-		notifyChanged();
+		execute(MoveCommand.obtain(id + 1, what, parent));
 	}
 
 	/**
 	 * Remove task from the tree
 	 */
 	public void remove (TaskModel what) {
+		execute(RemoveCommand.obtain(what));
+	}
+
+	private void execute (Command command) {
+		// recorded before execution, so indices in it match the journaled tree
+		if (journal != null) {
+			journal.execute(command);
+		}
+		commands.execute(command);
+		edited();
+	}
+
+	private void edited () {
 		dirty = true;
-		commands.execute(RemoveCommand.obtain(what));
-		tree.reset();
+		// transaction is applied as a whole on commit
+		if (commands.isInTransaction()) return;
+		resetTree();
 		notifyChanged();
 	}
 
+	/**
+	 * Start a transaction, edits until {@link #commit()} are undone and redone as one
+	 * Tree is reset and listeners are notified once, when the transaction is committed
+	 * Transactions can be nested, only outermost commit applies the edits
+	 */
+	public void begin () {
+		if (journal != null) {
+			journal.begin();
+		}
+		commands.begin();
+	}
+
+	/**
+	 * Commit current transaction, see {@link #begin()}
+	 */
+	public void commit () {
+		if (journal != null && commands.isInTransaction()) {
+			journal.commit();
+		}
+		if (commands.commit()) {
+			dirty = true;
+			resetTree();
+			notifyChanged();
+		}
+	}
+
+	/**
+	 * Undo all edits in current transaction and end it
+	 */
+	public void cancel () {
+		if (journal != null && commands.isInTransaction()) {
+			journal.cancel();
+		}
+		if (commands.cancel()) {
+			dirty = true;
+			resetTree();
+			notifyChanged();
+		}
+	}
+
+	/**
+	 * @return if edits are collected in a transaction, see {@link #begin()}
+	 */
+	public boolean isInTransaction () {
+		return commands.isInTransaction();
+	}
+
+	/**
+	 * Cancel running tasks, so tree starts from the root on next step
+	 * NOTE {@link BehaviorTree#reset()} is meant for pooling, it would clear the root and the blackboard
+	 */
+	private void resetTree () {
+		tree.resetTask();
+	}
+
 	public void undo () {
 		dirty = true;
 		if (commands.undo()) {
-			tree.reset();
+			if (journal != null) {
+				journal.undo();
+			}
+			resetTree();
 			notifyChanged();
 		}
 	}
@@ -225,15 +322,88 @@ public class BehaviorTreeModel implements BehaviorTree.Listener {
 	public void redo() {
 		dirty = true;
 		if (commands.redo()) {
-			tree.reset();
+			if (journal != null) {
+				journal.redo();
+			}
+			resetTree();
 			notifyChanged();
 		}
 	}
 
 	public void notifyChanged () {
+		// validate first, so read only subtrees are created before listeners get the changes
+		isValid();
 		for (int i = 0; i < listeners.size; i++) {
 			listeners.get(i).onChange(this);
 		}
+		clearChanges();
+	}
+
+	/**
+	 * Changes are collected between notifications, if there are none listeners should assume that anything could have changed
+	 * @return changes since last notification, valid only in {@link ModelChangeListener#onChange(BehaviorTreeModel)}
+	 */
+	public Array<ModelChange> getChanges () {
+		return changes;
+	}
+
+	private void clearChanges () {
+		for (int i = 0; i < changes.size; i++) {
+			ModelChange.free(changes.get(i));
+		}
+		changes.clear();
+	}
+
+	/**
+	 * Record that task was added to parent
+	 */
+	public void taskAdded (TaskModel parent, TaskModel task, int index) {
+		if (!initialized || replaying) return;
+		// task removed and added in same batch was moved
+		for (int i = changes.size - 1; i >= 0; i--) {
+			ModelChange change = changes.get(i);
+			if (change.task == task && change.type == ModelChange.Type.REMOVED) {
+				change.type = ModelChange.Type.MOVED;
+				change.oldParent = change.parent;
+				change.parent = parent;
+				change.index = index;
+				return;
+			}
+		}
+		changes.add(ModelChange.obtain(ModelChange.Type.ADDED, task, parent, index));
+	}
+
+	/**
+	 * Record that task was removed from parent
+	 */
+	public void taskRemoved (TaskModel parent, TaskModel task, int index) {
+		if (!initialized || replaying) return;
+		changes.add(ModelChange.obtain(ModelChange.Type.REMOVED, task, parent, index));
+	}
+
+	/**
+	 * Record that attribute or user comment of task was edited
+	 */
+	public void attributeChanged (TaskModel task) {
+		if (!initialized || replaying) return;
+		if (journal != null) {
+			journal.attributeChanged(task);
+		}
+		taskChanged(task);
+	}
+
+	/**
+	 * Record that attribute of task was changed
+	 */
+	public void taskChanged (TaskModel task) {
+		if (!initialized || replaying) return;
+		for (int i = 0; i < changes.size; i++) {
+			ModelChange change = changes.get(i);
+			if (change.task == task && change.type == ModelChange.Type.ATTRIBUTE) {
+				return;
+			}
+		}
+		changes.add(ModelChange.obtain(ModelChange.Type.ATTRIBUTE, task, null, -1));
 	}
 
 	private Array<ModelChangeListener> listeners = new Array<>();
@@ -247,57 +417,158 @@ public class BehaviorTreeModel implements BehaviorTree.Listener {
 		listeners.removeValue(listener, true);
 	}
 
-	private ObjectIntMap<TaskModel> modelTasks = new ObjectIntMap<>();
-	private ObjectIntMap<Task> tasks = new ObjectIntMap<>();
 	public boolean isValid () {
 		if (initialized && isDirty()) {
 			boolean newValid = root != null && root.isValid();
 			dirty = false;
 			if (newValid != valid && newValid) {
 				Gdx.app.log(TAG, "Reset tree");
-				tree.reset();
+				resetTree();
 			}
 			valid = newValid;
-			if (valid) {
-				saveBackup();
-				// TODO remove this probably
-				modelTasks.clear();
-				tasks.clear();
-				Gdx.app.log(TAG, "doubleCheck");
-				doubleCheck(modelTasks, tasks, root);
-				for (ObjectIntMap.Entry<TaskModel> entry : modelTasks.entries()) {
-					if (entry.value > 1) {
-						Gdx.app.error(TAG, "Duped model task " + entry.key);
-					}
-				}
-
-				for (ObjectIntMap.Entry<Task> entry : tasks) {
-					if (entry.value > 1) {
-						Gdx.app.error(TAG, "Duped task " + entry.key);
-					}
+			// tree might be back in backed up state, after undo for example
+			if (valid && (!hasBackupHash || root.getHash() != backupHash)) {
+				backups.request();
+				if (debugChecks) {
+					checkConsistency();
 				}
 			}
 		}
 		return valid;
 	}
 
-	private void doubleCheck (ObjectIntMap<TaskModel> modelTasks, ObjectIntMap<Task> tasks, TaskModel task) {
+	/**
+	 * Register model task, so it can be found by its wrapped task
+	 * @param task model task to register, ignored if it doesn't wrap a task
+	 */
+	public void register (TaskModel task) {
+		Task wrapped = task.getWrapped();
+		if (wrapped != null) {
+			taskToModel.put(wrapped, task);
+		}
+		if (task instanceof IncludeModel) {
+			includes.add((IncludeModel)task);
+		}
+	}
+
+	/**
+	 * Register model task and its children
+	 * NOTE guards are in the tree as children of GuardModel, guard of wrapped task is a copy that is not visible
+	 * @param task model task to register
+	 */
+	public void registerAll (TaskModel task) {
+		register(task);
+		for (int i = 0; i < task.getChildCount(); i++) {
+			registerAll(task.getChild(i));
+		}
+	}
+
+	/**
+	 * Unregister model task, if its wrapped task is still mapped to it
+	 * @param task model task to unregister
+	 */
+	public void unregister (TaskModel task) {
+		Task wrapped = task.getWrapped();
+		if (wrapped != null && taskToModel.get(wrapped) == task) {
+			taskToModel.remove(wrapped);
+		}
+		if (task instanceof IncludeModel) {
+			includes.remove((IncludeModel)task);
+		}
+	}
+
+	/**
+	 * Unregister model task and its children
+	 * NOTE guards are in the tree as children of GuardModel, guard of wrapped task is a copy that is not visible
+	 * @param task model task to unregister
+	 */
+	public void unregisterAll (TaskModel task) {
+		unregister(task);
+		for (int i = 0; i < task.getChildCount(); i++) {
+			unregisterAll(task.getChild(i));
+		}
+	}
+
+	/**
+	 * @param task wrapped task
+	 * @return model task that wraps given task or null if there isn't one
+	 */
+	public TaskModel getModelTask (Task task) {
+		return taskToModel.get(task);
+	}
+
+	/**
+	 * If set to {@code true}, {@link #checkConsistency()} will be called each time valid tree is modified
+	 * This walks the whole tree, so it is slow for large trees, default is {@code false}
+	 * @param debugChecks if consistency checks should be performed
+	 */
+	public void setDebugChecks (boolean debugChecks) {
+		this.debugChecks = debugChecks;
+	}
+
+	private ObjectIntMap<TaskModel> modelTasks = new ObjectIntMap<>();
+	private ObjectIntMap<Task> tasks = new ObjectIntMap<>();
+	/**
+	 * Debug check, walks the whole tree and makes sure that there are no duplicated tasks
+	 * and that each task can be found via {@link #getModelTask(Task)}
+	 * Errors are logged
+	 * @return if tree is consistent
+	 */
+	public boolean checkConsistency () {
+		if (!initialized || root == null) return true;
+		modelTasks.clear();
+		tasks.clear();
+		boolean consistent = checkConsistency(modelTasks, tasks, root);
+		for (ObjectIntMap.Entry<TaskModel> entry : modelTasks.entries()) {
+			if (entry.value > 1) {
+				Gdx.app.error(TAG, "Duped model task " + entry.key);
+				consistent = false;
+			}
+		}
+
+		for (ObjectIntMap.Entry<Task> entry : tasks) {
+			if (entry.value > 1) {
+				Gdx.app.error(TAG, "Duped task " + entry.key);
+				consistent = false;
+			}
+		}
+		modelTasks.clear();
+		tasks.clear();
+		return consistent;
+	}
+
+	private boolean checkConsistency (ObjectIntMap<TaskModel> modelTasks, ObjectIntMap<Task> tasks, TaskModel task) {
+		boolean consistent = true;
 		modelTasks.put(task, modelTasks.get(task, 0) + 1);
 		Task wrapped = task.getWrapped();
 		if (wrapped != null) {
 			tasks.put(wrapped, tasks.get(wrapped, 0) + 1);
-		} else {
+			if (taskToModel.get(wrapped) != task) {
+				Gdx.app.error(TAG, "Wrapped task of " + task + " is not mapped to it!");
+				consistent = false;
+			}
+		} else if (task.getType() != TaskModel.Type.GUARD) {
+			// guards are fake, they dont wrap anything
 			Gdx.app.error(TAG, "Wrapped task of " + task + " is null!");
+			consistent = false;
 		}
 		for (int i = 0; i < task.getChildCount(); i++) {
-			doubleCheck(modelTasks, tasks, task.getChild(i));
+			consistent &= checkConsistency(modelTasks, tasks, task.getChild(i));
 		}
+		return consistent;
 	}
 
 	public boolean isDirty () {
 		return dirty;
 	}
 
+	/**
+	 * Mark model as modified, so it is validated again
+	 */
+	public void markDirty () {
+		dirty = true;
+	}
+
 	public void validate () {
 		valid = root != null && root.isValid();
 	}
@@ -311,7 +582,7 @@ public class BehaviorTreeModel implements BehaviorTree.Listener {
 			root.wrappedUpdated(previousStatus, task.getStatus());
 			return;
 		}
-		TaskModel taskModel = root.getModelTask(task);
+		TaskModel taskModel = taskToModel.get(task);
 		if (taskModel == null) {
 			// TODO we are adding some tasks dynamically in our tree,
 			Gdx.app.error(TAG, "Mddel task for " + task + " not found, wtf?");
@@ -332,7 +603,13 @@ public class BehaviorTreeModel implements BehaviorTree.Listener {
 	// TODO move this save/load garbage to other class
 	private FileHandle defaultBackupDir = Gdx.files.external("bte2/backups/");
 	private FileHandle backupDir;
+	private BackupStore backupStore;
 	private String treeName;
+	private static final int SNAPSHOT_BUFFER_SIZE = 4096;
+	private long backupHash;
+	private boolean hasBackupHash;
+	private long savedHash;
+	private boolean hasSavedHash;
 	/**
 	 * Set backup folder
 	 * @param backup folder in which automatic backups will be saved, null to use default
@@ -342,32 +619,188 @@ public class BehaviorTreeModel implements BehaviorTree.Listener {
 			Gdx.app.error(TAG, "Backup folder must be a directory and exist!");
 		}
 		backupDir = backup;
+		backupStore = null;
+		hasBackupHash = false;
+	}
+
+	/**
+	 * Store is created for current backup folder, new one is created when folder changes
+	 * @return store used for automatic backups
+	 */
+	public BackupStore getBackupStore () {
+		if (backupStore == null) {
+			backupStore = new BackupStore((backupDir != null)?backupDir:defaultBackupDir);
+		}
+		return backupStore;
+	}
+
+	/**
+	 * @return writer used for automatic backups
+	 */
+	public BackupWriter getBackupWriter () {
+		return backups;
 	}
 
 	private void saveBackup () {
-		// TODO do we want to limit number of backups?
-		FileHandle dir = (backupDir != null)?backupDir:defaultBackupDir;
-		if (!dir.exists()) {
-			dir.mkdirs();
-		}
-		String serialize = BehaviorTreeWriter.serialize(tree);
-		String name;
-		// we don't want - in name
-		int hc = Math.abs(serialize.hashCode());
-		if (treeName != null) {
-			name = treeName + "_" + hc + ".tree";
-		} else {
-			name = "tree_" + hc + ".tree";
+		long hash = root.getHash();
+		if (hasBackupHash && hash == backupHash) {
+			backups.cancel();
+			return;
+		}
+		backupHash = hash;
+		hasBackupHash = true;
+		// structural hash is the revision, writer doesn't convert the snapshot if store already has a backup of it
+		String revision = BackupStore.revision(hash);
+		BackupStore store = getBackupStore();
+		// only a compact binary snapshot is made on this thread, it is converted to text on writer thread
+		ObjectMap<Task, String> comments = new ObjectMap<>();
+		collectComments(root, comments);
+		ByteArrayOutputStream snapshot = new ByteArrayOutputStream(SNAPSHOT_BUFFER_SIZE);
+		try {
+			BehaviorTreeBinary.write(tree.getChild(0), comments, snapshot);
+		} catch (IOException e) {
+			// ByteArrayOutputStream doesn't throw
+			throw new GdxRuntimeException(e);
+		}
+		backups.submit(store, treeName, revision, snapshot.toByteArray());
+	}
+
+	/**
+	 * Update the model, call this each frame
+	 * Submits pending backup if there were no modifications for a while and checks if included subtrees changed
+	 */
+	public void update () {
+		if (initialized && includes.size > 0 && TimeUtils.millis() >= nextIncludeCheck) {
+			nextIncludeCheck = TimeUtils.millis() + INCLUDE_CHECK_INTERVAL;
+			checkIncludes();
+		}
+		if (backups.isSnapshotDue()) {
+			if (initialized && isValid()) {
+				saveBackup();
+			} else {
+				backups.cancel();
+			}
+		}
+	}
+
+	/**
+	 * Includes with changed subtree archetypes are marked dirty, their children are recreated on validation
+	 * Called periodically by {@link #update()}
+	 */
+	public void checkIncludes () {
+		if (!initialized) return;
+		boolean changed = false;
+		for (IncludeModel include : includes) {
+			if (include.isSubtreeChanged()) {
+				include.markDirty();
+				changed = true;
+			}
+		}
+		if (changed) {
+			dirty = true;
+			notifyChanged();
 		}
-		FileHandle child = dir.child(name);
-		child.writeString(serialize, false);
-//		Gdx.app.log(TAG, "Created backup: " + child.file().getAbsolutePath());
 	}
 
 	public void saveTree (FileHandle fh) {
-		String serialize = BehaviorTreeWriter.serialize(tree);
-		fh.writeString(serialize, false);
+		if (BehaviorTreeBinary.isBinary(fh.name())) {
+			ObjectMap<Task, String> comments = new ObjectMap<>();
+			collectComments(root, comments);
+			BehaviorTreeBinary.write(tree, comments, fh);
+		} else {
+			// streamed straight to the file, large trees dont need a copy in memory
+			BehaviorTreeWriter.save(tree, fh);
+		}
 		treeName = fh.nameWithoutExtension();
+		markSaved();
+	}
+
+	/**
+	 * @return structural hash of current tree, 0 if model is not initialized
+	 * @see TaskModel#getHash()
+	 */
+	public long getHash () {
+		if (!initialized || root == null) return 0;
+		return root.getHash();
+	}
+
+	/**
+	 * Mark current state of the tree as saved
+	 */
+	public void markSaved () {
+		if (!initialized) return;
+		savedHash = getHash();
+		hasSavedHash = true;
+		if (journal != null) {
+			// saved tree has all the edits
+			journal.start(savedHash);
+		}
+	}
+
+	/**
+	 * Journal edits to given file, so they can be recovered if the editor crashes before the tree is saved
+	 * Journal is restarted each time a tree is loaded or saved
+	 * @param fh journal file, null to stop journaling
+	 * @param recover if edits in existing journal should be applied to current tree, if it is the tree journal was started with
+	 * @return number of recovered records, -1 if nothing was recovered
+	 */
+	public int setJournal (FileHandle fh, boolean recover) {
+		if (journal != null) {
+			journal.dispose();
+			journal = null;
+		}
+		if (fh == null) return -1;
+		journal = new CommandJournal(fh, this);
+		if (!initialized) return -1;
+		if (recover) {
+			replaying = true;
+			int recovered;
+			try {
+				recovered = journal.replay(root.getHash(), commands);
+			} finally {
+				replaying = false;
+			}
+			if (commands.isInTransaction()) {
+				// records after begin were torn, edits of unfinished transaction are dropped with them
+				journal.cancel();
+				commands.cancel();
+			}
+			if (recovered >= 0) {
+				Gdx.app.log(TAG, "Recovered " + recovered + " journal records from " + fh);
+				dirty = true;
+				resetTree();
+				clearChanges();
+				notifyChanged();
+				return recovered;
+			}
+		}
+		journal.start(root.getHash());
+		return -1;
+	}
+
+	/**
+	 * @return journal of edits or null if journaling is disabled
+	 */
+	public CommandJournal getJournal () {
+		return journal;
+	}
+
+	private void collectComments (TaskModel task, ObjectMap<Task, String> comments) {
+		// guards dont wrap a task
+		if (task.getWrapped() != null && task.hasUserComment()) {
+			comments.put(task.getWrapped(), task.getUserComment());
+		}
+		for (int i = 0; i < task.getChildCount(); i++) {
+			collectComments(task.getChild(i), comments);
+		}
+	}
+
+	/**
+	 * Checks structural hash of the tree, tree is not serialized
+	 * @return if current tree is the same as last saved or loaded tree
+	 */
+	public boolean isUnchangedSinceSave () {
+		return initialized && hasSavedHash && getHash() == savedHash;
 	}
 
 	public void loadTree (FileHandle fh) {
@@ -392,6 +825,7 @@ public class BehaviorTreeModel implements BehaviorTree.Listener {
 			}
 			TaskModel.inject(old);
 			treeName = fh.nameWithoutExtension();
+			markSaved();
 			for (ModelChangeListener listener : listeners) {
 				listener.onLoad(loadedTree, fh, this);
 			}
@@ -438,6 +872,16 @@ public class BehaviorTreeModel implements BehaviorTree.Listener {
 		return initialized;
 	}
 
+	/**
+	 * Waits for submitted backups and journaled edits to be written, model should not be used after this is called
+	 */
+	public void dispose () {
+		backups.dispose();
+		if (journal != null) {
+			journal.dispose();
+		}
+	}
+
 	public interface ModelChangeListener {
 		/**
 		 * Called when model was reset
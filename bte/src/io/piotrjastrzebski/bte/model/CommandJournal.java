@@ -0,0 +1,549 @@
+package io.piotrjastrzebski.bte.model;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.ai.btree.Task;
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.utils.Disposable;
+import com.badlogic.gdx.utils.IntArray;
+import com.badlogic.gdx.utils.ObjectMap;
+import com.badlogic.gdx.utils.SerializationException;
+import com.badlogic.gdx.utils.StreamUtils;
+import io.piotrjastrzebski.bte.BehaviorTreeBinary;
+import io.piotrjastrzebski.bte.model.edit.AddCommand;
+import io.piotrjastrzebski.bte.model.edit.Command;
+import io.piotrjastrzebski.bte.model.edit.CommandManager;
+import io.piotrjastrzebski.bte.model.edit.MoveCommand;
+import io.piotrjastrzebski.bte.model.edit.RemoveCommand;
+import io.piotrjastrzebski.bte.model.tasks.GuardModel;
+import io.piotrjastrzebski.bte.model.tasks.TaskModel;
+
+import java.io.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+/**
+ * Append only journal of edits made to a {@link BehaviorTreeModel}, so they can be recovered after a crash
+ *
+ * Journal is started with the hash of the tree as it was loaded or saved, edits after that are appended as records
+ * Records are encoded on the calling thread, batched and written with fsync on a background thread
+ * Each record has a length and a checksum, replay stops at first torn or corrupted record
+ * Tasks are addressed by child indices from the root, added subtrees are stored in {@link BehaviorTreeBinary} format
+ * Attribute and comment edits are stored as all attributes of the edited task, as they are not commands
+ */
+public class CommandJournal implements Disposable {
+	private static final String TAG = CommandJournal.class.getSimpleName();
+	/**
+	 * Extension of journal files
+	 */
+	public static final String EXTENSION = "btj";
+	// "BTJ" + format version
+	private static final int MAGIC = 0x42544A01;
+	// magic, base hash
+	private static final int HEADER_SIZE = 12;
+	private static final int OP_ADD = 1;
+	private static final int OP_MOVE = 2;
+	private static final int OP_REMOVE = 3;
+	private static final int OP_UNDO = 4;
+	private static final int OP_REDO = 5;
+	private static final int OP_BEGIN = 6;
+	private static final int OP_COMMIT = 7;
+	private static final int OP_CANCEL = 8;
+	private static final int OP_ATTRIBUTES = 9;
+	private static final int SUBTREE_TASK = 0;
+	// guard from the palette, without guard and guarded task
+	private static final int SUBTREE_GUARD = 1;
+
+	private final FileHandle fh;
+	private final BehaviorTreeModel model;
+	private final ScheduledExecutorService executor;
+	// records waiting for the writer thread, guarded by lock
+	private final Object lock = new Object();
+	private ByteArrayOutputStream pending = new ByteArrayOutputStream(1024);
+	private boolean scheduled;
+	private final AtomicInteger written = new AtomicInteger();
+	private final AtomicInteger batches = new AtomicInteger();
+	private long batchDelay = 100;
+	private int recorded;
+	// edit that couldn't be recorded, records after it would be wrong
+	private boolean broken;
+	private final ByteArrayOutputStream record = new ByteArrayOutputStream(256);
+	private final DataOutputStream out = new DataOutputStream(record);
+	private final ByteArrayOutputStream subtree = new ByteArrayOutputStream(1024);
+	private final ObjectMap<Task, String> comments = new ObjectMap<>();
+	private final IntArray path = new IntArray();
+	private final CRC32 crc = new CRC32();
+
+	/**
+	 * @param fh file journal is written to, it is truncated when journal is started
+	 * @param model model edits of which are recorded
+	 */
+	public CommandJournal (FileHandle fh, BehaviorTreeModel model) {
+		this.fh = fh;
+		this.model = model;
+		executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override public Thread newThread (Runnable r) {
+				Thread thread = new Thread(r, TAG);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Start new journal, previous records are dropped
+	 * @param baseHash structural hash of the tree that records will be applied to
+	 */
+	public void start (long baseHash) {
+		byte[] header = new byte[HEADER_SIZE];
+		writeInt(header, 0, MAGIC);
+		writeInt(header, 4, (int)(baseHash >>> 32));
+		writeInt(header, 8, (int)baseHash);
+		start(header);
+	}
+
+	private void start (final byte[] content) {
+		broken = false;
+		recorded = 0;
+		synchronized (lock) {
+			// they were for the old tree
+			pending.reset();
+		}
+		executor.execute(new Runnable() {
+			@Override public void run () {
+				writeFile(content, false);
+			}
+		});
+	}
+
+	/**
+	 * Record command that is about to be executed, so indices in it match the tree
+	 * @param command add, move or remove command
+	 */
+	public void execute (Command command) {
+		if (broken) return;
+		record.reset();
+		try {
+			if (command instanceof MoveCommand) {
+				MoveCommand move = (MoveCommand)command;
+				out.writeByte(OP_MOVE);
+				if (!writePath(move.getTask()) || !writePath(move.getTarget())) {
+					broken("Moved task is not in the tree");
+					return;
+				}
+				writeVarInt(move.getAt() + 1);
+			} else if (command instanceof AddCommand) {
+				AddCommand add = (AddCommand)command;
+				out.writeByte(OP_ADD);
+				if (!writePath(add.getTarget())) {
+					broken("Target of added task is not in the tree");
+					return;
+				}
+				writeVarInt(add.getAt() + 1);
+				if (!writeSubtree(add.getTask())) {
+					broken("Added task can't be written");
+					return;
+				}
+			} else if (command instanceof RemoveCommand) {
+				out.writeByte(OP_REMOVE);
+				if (!writePath(command.getTask())) {
+					broken("Removed task is not in the tree");
+					return;
+				}
+			} else {
+				broken("Unsupported command " + command);
+				return;
+			}
+		} catch (IOException | RuntimeException ex) {
+			Gdx.app.error(TAG, "Failed to record " + command, ex);
+			broken = true;
+			return;
+		}
+		submit();
+	}
+
+	/**
+	 * Record attributes and user comment of a task after they were edited
+	 * @param task edited task
+	 */
+	public void attributeChanged (TaskModel task) {
+		if (broken) return;
+		Task wrapped = task.getWrapped();
+		if (wrapped == null) {
+			broken("Edited task has no attributes");
+			return;
+		}
+		record.reset();
+		try {
+			out.writeByte(OP_ATTRIBUTES);
+			if (!writePath(task)) {
+				broken("Edited task is not in the tree");
+				return;
+			}
+			subtree.reset();
+			BehaviorTreeBinary.writeAttributes(wrapped, task.hasUserComment() ? task.getUserComment() : null, subtree);
+			writeVarInt(subtree.size());
+			subtree.writeTo(out);
+		} catch (IOException | RuntimeException ex) {
+			Gdx.app.error(TAG, "Failed to record attributes of " + task, ex);
+			broken = true;
+			return;
+		}
+		submit();
+	}
+
+	public void undo () {
+		op(OP_UNDO);
+	}
+
+	public void redo () {
+		op(OP_REDO);
+	}
+
+	public void begin () {
+		op(OP_BEGIN);
+	}
+
+	public void commit () {
+		op(OP_COMMIT);
+	}
+
+	public void cancel () {
+		op(OP_CANCEL);
+	}
+
+	private void op (int op) {
+		if (broken) return;
+		record.reset();
+		record.write(op);
+		submit();
+	}
+
+	private void broken (String reason) {
+		Gdx.app.error(TAG, reason + ", edits are not journaled until the tree is saved");
+		broken = true;
+	}
+
+	private void submit () {
+		byte[] bytes = record.toByteArray();
+		crc.reset();
+		crc.update(bytes, 0, bytes.length);
+		int checksum = (int)crc.getValue();
+		synchronized (lock) {
+			writeInt(pending, bytes.length);
+			pending.write(bytes, 0, bytes.length);
+			writeInt(pending, checksum);
+			if (!scheduled) {
+				scheduled = true;
+				executor.schedule(drain, batchDelay, TimeUnit.MILLISECONDS);
+			}
+		}
+		recorded++;
+	}
+
+	private final Runnable drain = new Runnable() {
+		@Override public void run () {
+			byte[] batch;
+			synchronized (lock) {
+				scheduled = false;
+				if (pending.size() == 0) return;
+				batch = pending.toByteArray();
+				pending.reset();
+			}
+			if (writeFile(batch, true)) {
+				batches.incrementAndGet();
+				written.addAndGet(batch.length);
+			}
+		}
+	};
+
+	private boolean writeFile (byte[] bytes, boolean append) {
+		FileOutputStream os = null;
+		try {
+			os = new FileOutputStream(fh.file(), append);
+			os.write(bytes);
+			os.flush();
+			os.getFD().sync();
+			return true;
+		} catch (IOException ex) {
+			Gdx.app.error(TAG, "Failed to write journal " + fh, ex);
+			return false;
+		} finally {
+			StreamUtils.closeQuietly(os);
+		}
+	}
+
+	private boolean writePath (TaskModel task) throws IOException {
+		TaskModel root = model.getRoot();
+		path.clear();
+		while (task != root) {
+			TaskModel parent = task.getParent();
+			if (parent == null) return false;
+			int id = parent.getChildId(task);
+			if (id < 0) return false;
+			path.add(id);
+			task = parent;
+		}
+		writeVarInt(path.size);
+		for (int i = path.size - 1; i >= 0; i--) {
+			writeVarInt(path.get(i));
+		}
+		return true;
+	}
+
+	private boolean writeSubtree (TaskModel task) throws IOException {
+		Task wrapped = task.getWrapped();
+		if (task instanceof GuardModel) {
+			if (task.getChildCount() == 0) {
+				out.writeByte(SUBTREE_GUARD);
+				return true;
+			}
+			if (task.getChildCount() != 2) return false;
+			// guarded task has the guard set
+			wrapped = task.getChild(1).getWrapped();
+		}
+		if (wrapped == null) return false;
+		comments.clear();
+		collectComments(task, comments);
+		subtree.reset();
+		BehaviorTreeBinary.write(wrapped, comments, subtree);
+		comments.clear();
+		out.writeByte(SUBTREE_TASK);
+		// reader is buffered, it needs to know where the subtree ends
+		writeVarInt(subtree.size());
+		subtree.writeTo(out);
+		return true;
+	}
+
+	private static void collectComments (TaskModel task, ObjectMap<Task, String> comments) {
+		if (task.getWrapped() != null && task.hasUserComment()) {
+			comments.put(task.getWrapped(), task.getUserComment());
+		}
+		for (int i = 0; i < task.getChildCount(); i++) {
+			collectComments(task.getChild(i), comments);
+		}
+	}
+
+	/**
+	 * Apply records from the journal file to the model, it must be in the state journal was started with
+	 * Records after a torn or corrupted one are dropped, journal continues after the applied ones
+	 * @param baseHash structural hash of current tree
+	 * @param commands command manager records are executed with
+	 * @return number of applied records, -1 if there is no journal for this tree
+	 */
+	public int replay (long baseHash, CommandManager commands) {
+		if (!fh.exists()) return -1;
+		byte[] bytes;
+		try {
+			bytes = fh.readBytes();
+		} catch (RuntimeException ex) {
+			Gdx.app.error(TAG, "Failed to read journal " + fh, ex);
+			return -1;
+		}
+		if (bytes.length < HEADER_SIZE || readInt(bytes, 0) != MAGIC) return -1;
+		long hash = ((long)readInt(bytes, 4) << 32) | (readInt(bytes, 8) & 0xFFFFFFFFL);
+		if (hash != baseHash) return -1;
+		int position = HEADER_SIZE;
+		int applied = 0;
+		while (position + 8 <= bytes.length) {
+			int length = readInt(bytes, position);
+			if (length <= 0 || length > bytes.length - position - 8) break;
+			crc.reset();
+			crc.update(bytes, position + 4, length);
+			if ((int)crc.getValue() != readInt(bytes, position + 4 + length)) break;
+			try {
+				apply(new DataInputStream(new ByteArrayInputStream(bytes, position + 4, length)), commands);
+			} catch (IOException | RuntimeException ex) {
+				Gdx.app.error(TAG, "Failed to replay journal record at " + position, ex);
+				break;
+			}
+			position += length + 8;
+			applied++;
+		}
+		if (position < bytes.length) {
+			Gdx.app.log(TAG, "Dropped " + (bytes.length - position) + " bytes of torn journal " + fh);
+		}
+		byte[] content = new byte[position];
+		System.arraycopy(bytes, 0, content, 0, position);
+		start(content);
+		recorded = applied;
+		return applied;
+	}
+
+	private void apply (DataInputStream in, CommandManager commands) throws IOException {
+		int op = in.readUnsignedByte();
+		switch (op) {
+		case OP_ADD: {
+			TaskModel target = readPath(in);
+			int at = readVarInt(in) - 1;
+			commands.execute(AddCommand.obtain(at, readSubtree(in), target));
+		} break;
+		case OP_MOVE: {
+			TaskModel what = readPath(in);
+			TaskModel target = readPath(in);
+			int at = readVarInt(in) - 1;
+			commands.execute(MoveCommand.obtain(at, what, target));
+		} break;
+		case OP_REMOVE: {
+			commands.execute(RemoveCommand.obtain(readPath(in)));
+		} break;
+		case OP_UNDO: commands.undo(); break;
+		case OP_REDO: commands.redo(); break;
+		case OP_BEGIN: commands.begin(); break;
+		case OP_COMMIT: commands.commit(); break;
+		case OP_CANCEL: commands.cancel(); break;
+		case OP_ATTRIBUTES: {
+			TaskModel task = readPath(in);
+			if (task.getWrapped() == null) throw new SerializationException("Edited task has no attributes");
+			byte[] bytes = new byte[readVarInt(in)];
+			in.readFully(bytes);
+			task.setUserComment(BehaviorTreeBinary.readAttributes(new ByteArrayInputStream(bytes), task.getWrapped()));
+			task.attributeChanged();
+		} break;
+		default:
+			throw new SerializationException("Invalid journal record " + op);
+		}
+	}
+
+	private TaskModel readPath (DataInputStream in) throws IOException {
+		TaskModel task = model.getRoot();
+		int depth = readVarInt(in);
+		for (int i = 0; i < depth; i++) {
+			int id = readVarInt(in);
+			if (id >= task.getChildCount()) throw new SerializationException("Invalid task path");
+			task = task.getChild(id);
+		}
+		return task;
+	}
+
+	private TaskModel readSubtree (DataInputStream in) throws IOException {
+		int kind = in.readUnsignedByte();
+		if (kind == SUBTREE_GUARD) {
+			return GuardModel.obtain(null, null, model);
+		}
+		if (kind != SUBTREE_TASK) throw new SerializationException("Invalid journal subtree " + kind);
+		byte[] bytes = new byte[readVarInt(in)];
+		in.readFully(bytes);
+		comments.clear();
+		Task task = BehaviorTreeBinary.read(new ByteArrayInputStream(bytes), comments);
+		TaskModel.inject(task);
+		TaskModel taskModel = TaskModel.wrap(task, model);
+		for (ObjectMap.Entry<Task, String> entry : comments) {
+			TaskModel commented = model.getModelTask(entry.key);
+			if (commented != null) {
+				commented.setUserComment(entry.value);
+			}
+		}
+		comments.clear();
+		return taskModel;
+	}
+
+	/**
+	 * Blocks until recorded edits are written
+	 */
+	public void flush () {
+		try {
+			executor.submit(drain).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			Gdx.app.error(TAG, "Failed to flush journal " + fh, e);
+		}
+	}
+
+	/**
+	 * @param batchDelay time in milliseconds records are collected for before they are written
+	 */
+	public void setBatchDelay (long batchDelay) {
+		this.batchDelay = Math.max(batchDelay, 0);
+	}
+
+	public long getBatchDelay () {
+		return batchDelay;
+	}
+
+	/**
+	 * @return number of records since journal was started, including replayed ones
+	 */
+	public int getRecordedCount () {
+		return recorded;
+	}
+
+	/**
+	 * @return number of batches written to the file
+	 */
+	public int getBatchCount () {
+		return batches.get();
+	}
+
+	/**
+	 * @return number of record bytes written to the file, not including the header
+	 */
+	public int getWrittenBytes () {
+		return written.get();
+	}
+
+	/**
+	 * @return if an edit couldn't be recorded, journal is not written until it is started again
+	 */
+	public boolean isBroken () {
+		return broken;
+	}
+
+	public FileHandle getFile () {
+		return fh;
+	}
+
+	/**
+	 * Writes recorded edits and stops the writer thread, journal file is kept
+	 */
+	@Override public void dispose () {
+		executor.execute(drain);
+		executor.shutdown();
+		try {
+			executor.awaitTermination(5, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static void writeInt (byte[] bytes, int offset, int value) {
+		bytes[offset] = (byte)(value >>> 24);
+		bytes[offset + 1] = (byte)(value >>> 16);
+		bytes[offset + 2] = (byte)(value >>> 8);
+		bytes[offset + 3] = (byte)value;
+	}
+
+	private static void writeInt (ByteArrayOutputStream out, int value) {
+		out.write(value >>> 24);
+		out.write(value >>> 16);
+		out.write(value >>> 8);
+		out.write(value);
+	}
+
+	private static int readInt (byte[] bytes, int offset) {
+		return (bytes[offset] & 0xFF) << 24 | (bytes[offset + 1] & 0xFF) << 16 | (bytes[offset + 2] & 0xFF) << 8 | (bytes[offset + 3] & 0xFF);
+	}
+
+	private void writeVarInt (int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	private static int readVarInt (DataInputStream in) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) return value;
+		}
+		throw new SerializationException("Malformed varint");
+	}
+}
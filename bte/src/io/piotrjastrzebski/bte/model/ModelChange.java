@@ -0,0 +1,110 @@
+package io.piotrjastrzebski.bte.model;
+
+import com.badlogic.gdx.utils.Pool;
+import io.piotrjastrzebski.bte.model.tasks.TaskModel;
+
+/**
+ * Describes a single modification of the model, collected between notifications
+ *
+ * Changes are only valid in {@link BehaviorTreeModel.ModelChangeListener#onChange(BehaviorTreeModel)}, they are freed after that
+ */
+public class ModelChange implements Pool.Poolable {
+	private final static Pool<ModelChange> pool = new Pool<ModelChange>() {
+		@Override protected ModelChange newObject () {
+			return new ModelChange();
+		}
+	};
+
+	public static ModelChange obtain (Type type, TaskModel task, TaskModel parent, int index) {
+		return pool.obtain().init(type, task, parent, index);
+	}
+
+	public static void free (ModelChange change) {
+		pool.free(change);
+	}
+
+	public enum Type {
+		/**
+		 * task was added to parent at index
+		 */
+		ADDED,
+		/**
+		 * task was removed from parent at index
+		 */
+		REMOVED,
+		/**
+		 * task was removed from old parent and added to parent at index
+		 */
+		MOVED,
+		/**
+		 * attribute of task was changed, for include this means that its read only children were replaced
+		 */
+		ATTRIBUTE
+	}
+
+	protected Type type;
+	protected TaskModel task;
+	protected TaskModel parent;
+	protected TaskModel oldParent;
+	protected int index = -1;
+
+	private ModelChange () {}
+
+	private ModelChange init (Type type, TaskModel task, TaskModel parent, int index) {
+		this.type = type;
+		this.task = task;
+		this.parent = parent;
+		this.index = index;
+		return this;
+	}
+
+	public Type getType () {
+		return type;
+	}
+
+	/**
+	 * @return task that was changed
+	 */
+	public TaskModel getTask () {
+		return task;
+	}
+
+	/**
+	 * @return parent of the task after the change, or parent it was removed from, null for {@link Type#ATTRIBUTE}
+	 */
+	public TaskModel getParent () {
+		return parent;
+	}
+
+	/**
+	 * @return parent task was moved from, null if the change is not {@link Type#MOVED}
+	 */
+	public TaskModel getOldParent () {
+		return oldParent;
+	}
+
+	/**
+	 * @return index of the task in parent, -1 for {@link Type#ATTRIBUTE}
+	 */
+	public int getIndex () {
+		return index;
+	}
+
+	@Override public void reset () {
+		type = null;
+		task = null;
+		parent = null;
+		oldParent = null;
+		index = -1;
+	}
+
+	@Override public String toString () {
+		return "ModelChange{" +
+			"type=" + type +
+			", task=" + task +
+			", parent=" + parent +
+			(oldParent != null ? ", oldParent=" + oldParent : "") +
+			", index=" + index +
+			'}';
+	}
+}
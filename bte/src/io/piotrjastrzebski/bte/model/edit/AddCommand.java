@@ -52,6 +52,21 @@ public class AddCommand extends Command {
 		target.removeChild(what);
 	}
 
+	@Override public TaskModel getTask () {
+		return what;
+	}
+
+	public TaskModel getTarget () {
+		return target;
+	}
+
+	/**
+	 * @return index at which task is inserted, -1 if it is added as last child
+	 */
+	public int getAt () {
+		return at;
+	}
+
 	@Override public void free () {
 		pool.free(this);
 	}
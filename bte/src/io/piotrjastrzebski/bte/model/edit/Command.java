@@ -1,15 +1,45 @@
 package io.piotrjastrzebski.bte.model.edit;
 
+import com.badlogic.gdx.utils.Array;
 import com.badlogic.gdx.utils.Pool;
+import io.piotrjastrzebski.bte.model.tasks.TaskModel;
 
 public abstract class Command implements Pool.Poolable {
-	public enum Type {ADD, REMOVE, MOVE, COPY;}
+	public enum Type {ADD, REMOVE, MOVE, COPY, COMPOUND;}
 
 	protected Type type;
+	// estimated memory kept alive by this command, set by CommandManager when it is executed
+	long retainedSize;
 	public Command (Type type) {
 		this.type = type;
 	}
 	protected abstract void execute ();
 	protected abstract void undo ();
 	protected abstract void free ();
+
+	/**
+	 * @return task affected by this command, null if there are many
+	 */
+	public abstract TaskModel getTask ();
+
+	/**
+	 * @param out tasks affected by this command are added here
+	 */
+	public void getTasks (Array<TaskModel> out) {
+		TaskModel task = getTask();
+		if (task != null) {
+			out.add(task);
+		}
+	}
+
+	/**
+	 * @return if this command needs given task for undo or redo
+	 */
+	public boolean references (TaskModel task) {
+		return getTask() == task;
+	}
+
+	public Type getType () {
+		return type;
+	}
 }
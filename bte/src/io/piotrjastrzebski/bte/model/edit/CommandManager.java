@@ -1,19 +1,37 @@
 package io.piotrjastrzebski.bte.model.edit;
 
 import com.badlogic.gdx.utils.Array;
+import io.piotrjastrzebski.bte.model.tasks.TaskModel;
 
 /**
  * Menages commands, allows for undo/redo etc
  *
+ * History is bounded by number of commands and by estimated memory kept alive by them, oldest commands are evicted first
+ * Tasks that are no longer in the tree or in the history are freed with the commands that kept them
+ * Consecutive moves of the same task are merged into one command
+ * Commands executed between {@link #begin()} and {@link #commit()} are undone and redone as one
+ *
  * Created by EvilEntity on 05/02/2016.
  */
 public class CommandManager {
 	private static final String TAG = CommandManager.class.getSimpleName();
+	// rough memory used by a task model with its wrapped task
+	private static final int TASK_SIZE_ESTIMATE = 256;
+	private static final int COMMAND_SIZE_ESTIMATE = 64;
 	private Array<Command> commands = new Array<>();
-	private int current = 0;
+	private Array<Command> discarded = new Array<>();
+	private Array<TaskModel> released = new Array<>();
+	private int current = -1;
+	private int maxCommands = 256;
+	private long maxRetainedSize = 16 * 1024 * 1024;
+	private long retainedSize;
+	private int evicted;
+	private CompoundCommand transaction;
+	private int depth;
+	private Array<TaskModel> tasks = new Array<>();
 
 	public boolean canRedo () {
-		return current < commands.size -1 && current >= -1;
+		return transaction == null && current < commands.size -1 && current >= -1;
 	}
 
 	public boolean redo() {
@@ -26,7 +44,7 @@ public class CommandManager {
 	}
 
 	public boolean canUndo () {
-		return commands.size > 0 && current >= 0;
+		return transaction == null && commands.size > 0 && current >= 0;
 	}
 
 	public boolean undo() {
@@ -39,21 +57,208 @@ public class CommandManager {
 	}
 
 	public void execute(Command command) {
-		if (current < commands.size -1 && commands.size > 0) {
-			for (int i = current + 1; i < commands.size -1; i++) {
-				commands.get(i).free();
+		// new command replaces undone ones
+		while (commands.size - 1 > current) {
+			discarded.add(commands.pop());
+		}
+		discard();
+		command.execute();
+		if (transaction != null) {
+			transaction.add(command);
+			return;
+		}
+		if (command instanceof MoveCommand && current >= 0) {
+			Command last = commands.get(current);
+			if (last instanceof MoveCommand && ((MoveCommand)last).merge((MoveCommand)command)) {
+				return;
 			}
-			commands.removeRange(current + 1, commands.size - 1);
 		}
+		push(command);
+	}
+
+	private void push (Command command) {
+		tasks.clear();
+		command.getTasks(tasks);
+		int count = 0;
+		for (int i = 0; i < tasks.size; i++) {
+			count += countTasks(tasks.get(i));
+		}
+		tasks.clear();
+		command.retainedSize = COMMAND_SIZE_ESTIMATE + count * TASK_SIZE_ESTIMATE;
+		retainedSize += command.retainedSize;
 		commands.add(command);
-		command.execute();
 		current = commands.size - 1;
+		trim();
 	}
 
-	public void reset() {
-		for (Command command : commands) {
+	/**
+	 * Start a transaction, commands executed until {@link #commit()} are added to history as one command
+	 * Transactions can be nested, commands are added when outermost transaction is committed
+	 * Undo and redo are not possible while transaction is in progress
+	 */
+	public void begin () {
+		if (transaction == null) {
+			transaction = CompoundCommand.obtain();
+		}
+		depth++;
+	}
+
+	/**
+	 * Commit current transaction, ignored if there is none, it could be cancelled by nested code
+	 * @return if outermost transaction was committed and it changed something
+	 */
+	public boolean commit () {
+		if (transaction == null) return false;
+		if (--depth > 0) return false;
+		CompoundCommand command = transaction;
+		transaction = null;
+		if (command.size() == 0) {
+			command.free();
+			return false;
+		}
+		push(command);
+		return true;
+	}
+
+	/**
+	 * Undo commands executed in current transaction, including nested ones, and end it
+	 * @return if anything was undone
+	 */
+	public boolean cancel () {
+		if (transaction == null) return false;
+		CompoundCommand command = transaction;
+		transaction = null;
+		depth = 0;
+		command.undo();
+		discarded.add(command);
+		discard();
+		return command.size() > 0;
+	}
+
+	/**
+	 * @return if transaction is in progress
+	 */
+	public boolean isInTransaction () {
+		return transaction != null;
+	}
+
+	private void trim () {
+		// oldest command must be executed, so redo of the next one is valid
+		while ((commands.size > maxCommands || retainedSize > maxRetainedSize) && commands.size > 1 && current > 0) {
+			current--;
+			evicted++;
+			discarded.add(commands.removeIndex(0));
+			discard();
+		}
+	}
+
+	/**
+	 * Free commands that were removed from the history
+	 * Their tasks are freed as well, if they are not in the tree and no other command needs them
+	 * Tasks are picked before anything is freed, task in a detached subtree is freed with the subtree
+	 */
+	private void discard () {
+		for (int i = 0; i < discarded.size; i++) {
+			Command command = discarded.get(i);
+			retainedSize -= command.retainedSize;
+			command.getTasks(tasks);
+			for (int j = 0; j < tasks.size; j++) {
+				TaskModel task = tasks.get(j);
+				if (isDetached(task) && !isReferenced(task) && !released.contains(task, true)) {
+					released.add(task);
+				}
+			}
+			tasks.clear();
 			command.free();
 		}
+		discarded.clear();
+		for (int i = 0; i < released.size; i++) {
+			TaskModel.free(released.get(i));
+		}
+		released.clear();
+	}
+
+	private boolean isReferenced (TaskModel task) {
+		for (int i = 0; i < commands.size; i++) {
+			if (commands.get(i).references(task)) return true;
+		}
+		return false;
+	}
+
+	private static boolean isDetached (TaskModel task) {
+		if (task.getParent() != null) return false;
+		// guard of a task doesn't have a parent
+		TaskModel guarded = task.getGuarded();
+		return guarded == null || guarded.getGuard() != task;
+	}
+
+	private static int countTasks (TaskModel task) {
+		if (task == null) return 0;
+		int count = 1;
+		if (task.getGuard() != null) {
+			count += countTasks(task.getGuard());
+		}
+		for (int i = 0; i < task.getChildCount(); i++) {
+			count += countTasks(task.getChild(i));
+		}
+		return count;
+	}
+
+	/**
+	 * @param maxCommands max number of commands in the history, at least 1
+	 */
+	public void setMaxCommands (int maxCommands) {
+		this.maxCommands = Math.max(1, maxCommands);
+		trim();
+	}
+
+	public int getMaxCommands () {
+		return maxCommands;
+	}
+
+	/**
+	 * @param maxRetainedSize max estimated memory in bytes kept alive by the history, last command is kept even if it is over
+	 */
+	public void setMaxRetainedSize (long maxRetainedSize) {
+		this.maxRetainedSize = maxRetainedSize;
+		trim();
+	}
+
+	public long getMaxRetainedSize () {
+		return maxRetainedSize;
+	}
+
+	/**
+	 * @return estimated memory in bytes kept alive by the history
+	 */
+	public long getRetainedSize () {
+		return retainedSize;
+	}
+
+	/**
+	 * @return number of commands in the history, including undone ones
+	 */
+	public int size () {
+		return commands.size;
+	}
+
+	/**
+	 * @return number of commands evicted from the history since it was created
+	 */
+	public int getEvictedCount () {
+		return evicted;
+	}
+
+	public void reset() {
+		discarded.addAll(commands);
 		commands.clear();
+		if (transaction != null) {
+			discarded.add(transaction);
+			transaction = null;
+			depth = 0;
+		}
+		discard();
+		current = -1;
+		retainedSize = 0;
 	}
 }
@@ -0,0 +1,84 @@
+package io.piotrjastrzebski.bte.model.edit;
+
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.Pool;
+import io.piotrjastrzebski.bte.model.tasks.TaskModel;
+
+/**
+ * Commands that are undone and redone as one, created by {@link CommandManager#begin()}
+ */
+public class CompoundCommand extends Command {
+	private static Pool<CompoundCommand> pool = new Pool<CompoundCommand>() {
+		@Override protected CompoundCommand newObject () {
+			return new CompoundCommand();
+		}
+	};
+
+	public static CompoundCommand obtain () {
+		return pool.obtain();
+	}
+
+	private Array<Command> commands = new Array<>();
+
+	protected CompoundCommand () {
+		super(Type.COMPOUND);
+	}
+
+	/**
+	 * Add executed command, consecutive moves of the same task are merged
+	 * @param command command that was executed already
+	 */
+	public void add (Command command) {
+		if (command instanceof MoveCommand && commands.size > 0) {
+			Command last = commands.peek();
+			if (last instanceof MoveCommand && ((MoveCommand)last).merge((MoveCommand)command)) {
+				return;
+			}
+		}
+		commands.add(command);
+	}
+
+	public int size () {
+		return commands.size;
+	}
+
+	@Override protected void execute () {
+		for (int i = 0; i < commands.size; i++) {
+			commands.get(i).execute();
+		}
+	}
+
+	@Override protected void undo () {
+		for (int i = commands.size - 1; i >= 0; i--) {
+			commands.get(i).undo();
+		}
+	}
+
+	@Override public TaskModel getTask () {
+		return commands.size == 1 ? commands.first().getTask() : null;
+	}
+
+	@Override public void getTasks (Array<TaskModel> out) {
+		for (int i = 0; i < commands.size; i++) {
+			commands.get(i).getTasks(out);
+		}
+	}
+
+	@Override public boolean references (TaskModel task) {
+		for (int i = 0; i < commands.size; i++) {
+			if (commands.get(i).references(task)) return true;
+		}
+		return false;
+	}
+
+	@Override protected void free () {
+		pool.free(this);
+	}
+
+	@Override public void reset () {
+		for (int i = 0; i < commands.size; i++) {
+			commands.get(i).free();
+		}
+		commands.clear();
+	}
+}
@@ -47,9 +47,43 @@ public class MoveCommand extends Command {
 		remove.undo();
 	}
 
-	@Override public void reset () {
+	/**
+	 * Merge move of the same task that was executed right after this one
+	 * Task is removed from where it was before this command and added where other command put it
+	 * Rest of the tree is the same in both cases, so indices of both commands stay valid
+	 * @param other executed move command, it is freed if it was merged
+	 * @return if other command was merged into this one
+	 */
+	public boolean merge (MoveCommand other) {
+		if (other == this || other.getTask() != getTask()) return false;
 		add.free();
-		add = null;
+		add = other.add;
+		other.add = null;
+		other.free();
+		return true;
+	}
+
+	@Override public TaskModel getTask () {
+		return add.getTask();
+	}
+
+	public TaskModel getTarget () {
+		return add.getTarget();
+	}
+
+	/**
+	 * @return index at which task is inserted, -1 if it is added as last child
+	 */
+	public int getAt () {
+		return add.getAt();
+	}
+
+	@Override public void reset () {
+		// add may be taken by other command
+		if (add != null) {
+			add.free();
+			add = null;
+		}
 		remove.free();
 		remove = null;
 	}
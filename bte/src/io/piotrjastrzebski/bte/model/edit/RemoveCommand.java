@@ -55,6 +55,10 @@ public class RemoveCommand extends Command implements Pool.Poolable {
 		}
 	}
 
+	@Override public TaskModel getTask () {
+		return what;
+	}
+
 	@Override public void free () {
 		pool.free(this);
 	}
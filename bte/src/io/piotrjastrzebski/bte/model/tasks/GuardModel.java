@@ -36,6 +36,8 @@ public class GuardModel extends TaskModel implements Pool.Poolable {
 
 	public GuardModel init (TaskModel guard, TaskModel guarded, BehaviorTreeModel model) {
 		this.model = model;
+		dirty = true;
+		hashDirty = true;
 		minChildren = ReflectionUtils.getMinChildren(Guard.class);
 		maxChildren = ReflectionUtils.getMaxChildren(Guard.class);
 		children.clear();
@@ -77,7 +79,7 @@ public class GuardModel extends TaskModel implements Pool.Poolable {
 		if (parent == null) {
 			throw new AssertionError("GuardModel requires parent before children can be added to it");
 		}
-		int idInParent = parent.children.indexOf(this, true);
+		int idInParent = parent.getChildId(this);
 		// TODO make sure this works when we are a child of root
 		// at == 0 -> insert as guard if possible
 		if (at == 0) {
@@ -110,6 +112,9 @@ public class GuardModel extends TaskModel implements Pool.Poolable {
 		} else {
 			throw new AssertionError("Invalid task at " + at);
 		}
+		model.registerAll(task);
+		model.taskAdded(this, task, getChildId(task));
+		markDirty();
 	}
 
 	protected void insertInto (TaskModel parent, int at) {
@@ -119,10 +124,10 @@ public class GuardModel extends TaskModel implements Pool.Poolable {
 	}
 
 	@Override public void removeChild (TaskModel task) {
-		int at = children.indexOf(task, true);
+		int at = getChildId(task);
 		int size = children.size;
 		children.removeValue(task, true);
-		int idInParent = parent.children.indexOf(this, true);
+		int idInParent = parent.getChildId(this);
 		if (at == 0) {
 			if (size == 2) {
 				// remove guard from guarded
@@ -149,6 +154,11 @@ public class GuardModel extends TaskModel implements Pool.Poolable {
 			throw new AssertionError("Invalid task at " + at);
 		}
 		task.setParent(null);
+		model.unregisterAll(task);
+		// removeGuard() unregisters old guard, it might still be in here
+		model.registerAll(this);
+		model.taskRemoved(this, task, at);
+		markDirty();
 	}
 
 	@Override protected void removeFrom (TaskModel parent) {
@@ -165,6 +175,17 @@ public class GuardModel extends TaskModel implements Pool.Poolable {
 		pool.free(this);
 	}
 
+	@Override public void reset () {
+		// guard set when guarded task was added is also the guard of that task, it would be freed twice
+		if (guarded != null && guarded.guard == guard) {
+			guarded.guard = null;
+		}
+		super.reset();
+		// shadowed fields are not cleared by super, pooled guard would keep stale tasks
+		guard = null;
+		guarded = null;
+	}
+
 	@Override public String getName () {
 		return "Guard";
 	}
@@ -6,12 +6,14 @@ import com.badlogic.gdx.ai.btree.decorator.Include;
 import com.badlogic.gdx.ai.btree.utils.BehaviorTreeLibrary;
 import com.badlogic.gdx.ai.btree.utils.BehaviorTreeLibraryManager;
 import com.badlogic.gdx.utils.Pool;
+import io.piotrjastrzebski.bte.EditorBehaviourTreeLibrary;
 import io.piotrjastrzebski.bte.model.BehaviorTreeModel;
 
 /**
  * Wraps Include task
  *
  * For path to be considered valid it must be present in BehaviorTreeLibraryManager.getInstance().getLibrary()
+ * Children are read only copy of the subtree, they are created again only when the archetype of the subtree changes
  *
  * Created by EvilEntity on 04/02/2016.
  */
@@ -48,49 +50,89 @@ public class IncludeModel extends TaskModel implements Pool.Poolable {
 		return this;
 	}
 
+	// subtree that children were created from and version of its archetype at that time
+	private String resolvedSubtree;
+	private int resolvedVersion;
+
+	/**
+	 * Children are created from the archetype of the subtree, they are created again only if subtree path or the archetype changed
+	 */
 	@SuppressWarnings("unchecked")
 	@Override public boolean isValid () {
-		// TODO check that we have a proper tree at specified subtree
-		// TODO if it is valid, we want to add the sub tree as child of this task
-		// TODO that will probably require custom include task that accepts children or something
+		if (!dirty) return valid;
 		// TODO perhaps delegate path check to external thing, so it is possible to change it
 		Include include = (Include)wrapped;
-		// TODO test with dog.other
-		include.subtree = "dog.other";
+		// subtree is grafted by the editor, so it must be run as lazy include
 		include.lazy = true;
 		BehaviorTreeLibrary library = BehaviorTreeLibraryManager.getInstance().getLibrary();
-		boolean includeChanged = false;
-		if (include.subtree != null) {
-			// TODO use this from snapshot eventually
-//			if (library.hasBehaviorTree(include.subtree))
+		String subtree = include.subtree;
+		if (subtree == null) {
+			if (resolvedSubtree != null || children.size > 0) {
+				resolvedSubtree = null;
+				clearSubtree(include);
+				model.taskChanged(this);
+			}
+			valid = false;
+		} else if (!subtree.equals(resolvedSubtree) || getArchetypeVersion(library, subtree) != resolvedVersion) {
+			clearSubtree(include);
+			resolvedSubtree = null;
+			valid = false;
 			try {
-				Task<Object> rootTask = library.createRootTask(include.subtree);
-				if (include.getChildCount() > 0) {
-					ReflectionUtils.remove(include.getChild(0), include);
-				}
+				Task<Object> rootTask = library.createRootTask(subtree);
 				include.addChild(rootTask);
-				includeChanged = true;
+				// archetype is loaded now, so this is the version we got
+				resolvedVersion = getArchetypeVersion(library, subtree);
+				resolvedSubtree = subtree;
 				valid = true;
 			} catch (RuntimeException e) {
 				// TODO proper handling, with type of error reported
-				Gdx.app.error(TAG, "Subtree not found " + include.subtree, e);
+				Gdx.app.error(TAG, "Subtree not found " + subtree, e);
 			}
-		}
-		if (includeChanged) {
-			for (int i = 0; i < children.size; i++) {
-				free(children.get(i));
-			}
-			children.clear();
 			for (int i = 0; i < wrapped.getChildCount(); i++) {
 				TaskModel child = wrap(wrapped.getChild(i), model);
 				child.setParent(this);
 				child.setReadOnly(true);
 				children.add(child);
 			}
+			model.taskChanged(this);
 		}
+		dirty = false;
 		return valid;
 	}
 
+	private void clearSubtree (Include include) {
+		if (include.getChildCount() > 0) {
+			ReflectionUtils.remove(include.getChild(0), include);
+		}
+		for (int i = 0; i < children.size; i++) {
+			free(children.get(i));
+		}
+		children.clear();
+	}
+
+	/**
+	 * Cheap check, subtree is not loaded
+	 * @return if archetype of resolved subtree changed since children were created from it
+	 */
+	public boolean isSubtreeChanged () {
+		if (resolvedSubtree == null) return false;
+		BehaviorTreeLibrary library = BehaviorTreeLibraryManager.getInstance().getLibrary();
+		return getArchetypeVersion(library, resolvedSubtree) != resolvedVersion;
+	}
+
+	private static int getArchetypeVersion (BehaviorTreeLibrary library, String subtree) {
+		if (library instanceof EditorBehaviourTreeLibrary) {
+			return ((EditorBehaviourTreeLibrary)library).getArchetypeVersion(subtree);
+		}
+		// plain library keeps archetypes forever
+		return 0;
+	}
+
+	@Override protected long hashChildren (long h) {
+		// children are created from included subtree, path to it is enough
+		return h;
+	}
+
 	@Override public IncludeModel copy () {
 		return pool.obtain().init(this);
 	}
@@ -99,6 +141,12 @@ public class IncludeModel extends TaskModel implements Pool.Poolable {
 		pool.free(this);
 	}
 
+	@Override public void reset () {
+		super.reset();
+		resolvedSubtree = null;
+		resolvedVersion = 0;
+	}
+
 	@Override public String toString () {
 		return "IncludeModel{" +
 			"name='" + name + '\'' +
@@ -2,13 +2,13 @@ package io.piotrjastrzebski.bte.model.tasks;
 
 import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.ai.btree.*;
-import com.badlogic.gdx.ai.btree.annotation.TaskConstraint;
+import com.badlogic.gdx.ai.utils.random.Distribution;
 import com.badlogic.gdx.utils.Array;
-import com.badlogic.gdx.utils.ObjectIntMap;
-import com.badlogic.gdx.utils.reflect.Annotation;
+import com.badlogic.gdx.utils.GdxRuntimeException;
 import com.badlogic.gdx.utils.reflect.ClassReflection;
 import com.badlogic.gdx.utils.reflect.Field;
 import com.badlogic.gdx.utils.reflect.ReflectionException;
+import io.piotrjastrzebski.bte.BehaviorTreeWriter;
 
 /**
  * Created by PiotrJ on 10/02/16.
@@ -18,69 +18,111 @@ public class ReflectionUtils {
 
 	private ReflectionUtils () {}
 
-	private static ObjectIntMap<Class> minChildrenCache = new ObjectIntMap<>();
-	private static ObjectIntMap<Class> maxChildrenCache = new ObjectIntMap<>();
 	public static int getMinChildren(Task task) {
 		return getMinChildren(task.getClass());
 	}
 
+	/**
+	 * @return min children from {@link com.badlogic.gdx.ai.btree.annotation.TaskConstraint} or -1 if there is none
+	 */
 	public static int getMinChildren(Class<? extends Task> cls) {
-		// Constraint can only have >= 0 value
-		int min = minChildrenCache.get(cls, -1);
-		if (min < 0) {
-			findConstraints(cls);
-			// if its still -1, we failed
-			min = minChildrenCache.get(cls, -1);
-		}
-		return min;
+		return TaskClassInfo.get(cls).getMinChildren();
 	}
 
 	public static int getMaxChildren(Task task) {
 		return getMaxChildren(task.getClass());
 	}
 
+	/**
+	 * @return max children from {@link com.badlogic.gdx.ai.btree.annotation.TaskConstraint} or -1 if there is none
+	 */
 	public static int getMaxChildren(Class<? extends Task> cls) {
-		// Constraint can only have >= 0 value
-		int max = maxChildrenCache.get(cls, -1);
-		if (max < 0) {
-			findConstraints(cls);
-			// if its still -1, we failed
-			max = maxChildrenCache.get(cls, -1);
-		}
-		return max;
+		return TaskClassInfo.get(cls).getMaxChildren();
 	}
 
-	private static void findConstraints (Class<?> cls) {
-		Annotation annotation = null;
-		Class<?> tCls = cls;
-		// walk the class hierarchy till we get the annotation
-		while (annotation == null && cls != Object.class) {
-			annotation = ClassReflection.getDeclaredAnnotation(cls, TaskConstraint.class);
-			if (annotation == null) {
-				cls = cls.getSuperclass();
+	/**
+	 * Combine values of {@link TaskAttribute} fields of given task into given hash
+	 * Hash depends only on values, so it is the same between runs
+	 * @param task task to hash attributes of
+	 * @param hash hash to combine with
+	 * @return combined hash
+	 */
+	public static long hashAttributes (Task task, long hash) {
+		TaskClassInfo info = TaskClassInfo.get(task);
+		for (int i = 0, n = info.getAttributeCount(); i < n; i++) {
+			TaskClassInfo.Attribute attribute = info.getAttribute(i);
+			try {
+				hash = TaskModel.mix(hash, hashValue(task, attribute));
+			} catch (ReflectionException e) {
+				Gdx.app.error(TAG, "Failed to get field " + attribute.getName(), e);
 			}
 		}
-		if (annotation == null) {
-			Gdx.app.error(TAG, "TaskConstraint annotation not found on class " + tCls);
-			return;
+		return hash;
+	}
+
+	private static int hashValue (Task task, TaskClassInfo.Attribute attribute) throws ReflectionException {
+		// same values as hashCode() of boxed primitives, without boxing
+		Class type = attribute.getType();
+		if (type == int.class) {
+			return attribute.getInt(task);
+		} else if (type == long.class) {
+			long value = attribute.getLong(task);
+			return (int)(value ^ (value >>> 32));
+		} else if (type == float.class) {
+			return Float.floatToIntBits(attribute.getFloat(task));
+		} else if (type == double.class) {
+			long value = Double.doubleToLongBits(attribute.getDouble(task));
+			return (int)(value ^ (value >>> 32));
+		} else if (type == boolean.class) {
+			return attribute.getBoolean(task) ? 1231 : 1237;
+		}
+		return hashValue(attribute.get(task));
+	}
+
+	private static int hashValue (Object o) {
+		if (o == null) return 0;
+		// default hash codes of these are stable
+		if (o instanceof String || o instanceof Number || o instanceof Boolean || o instanceof Character) {
+			return o.hashCode();
+		}
+		if (o instanceof Enum) {
+			return ((Enum)o).name().hashCode();
+		}
+		if (o instanceof Distribution) {
+			try {
+				return BehaviorTreeWriter.toParsableString((Distribution)o).hashCode();
+			} catch (RuntimeException e) {
+				// no adapter for this distribution, same as writer we fall back to toString
+			}
 		}
-		TaskConstraint constraint = annotation.getAnnotation(TaskConstraint.class);
-		minChildrenCache.put(tCls, constraint.minChildren());
-		maxChildrenCache.put(tCls, constraint.maxChildren());
+		return String.valueOf(o).hashCode();
 	}
 
 	public static void clearReflectionCache () {
-		minChildrenCache.clear();
-		maxChildrenCache.clear();
+		TaskClassInfo.clear();
+	}
+
+	// resolved once, gdx-ai doesn't expose these, field access is used by every edit of the tree
+	private static final Field branchChildren = findField(BranchTask.class, "children");
+	private static final Field decoratorChild = findField(Decorator.class, "child");
+	private static final Field randomChildren = findField(SingleRunningChildBranch.class, "randomChildren");
+	private static final Field treeRoot = findField(BehaviorTree.class, "rootTask");
+
+	private static Field findField (Class cls, String name) {
+		try {
+			Field field = ClassReflection.getDeclaredField(cls, name);
+			field.setAccessible(true);
+			return field;
+		} catch (ReflectionException e) {
+			throw new GdxRuntimeException("Field " + name + " not found in " + cls + ", incompatible gdx-ai version?", e);
+		}
 	}
 
 	public static boolean insert(Task what, int at, Task into) {
 		try {
 			// we need to check it task is in target before we add, as that will happen on init
 			if (into instanceof BranchTask) {
-				Field field = ClassReflection.getDeclaredField(BranchTask.class, "children");
-				field.setAccessible(true);
-				@SuppressWarnings("unchecked") Array<Task> children = (Array<Task>)field.get(into);
+				@SuppressWarnings("unchecked") Array<Task> children = (Array<Task>)branchChildren.get(into);
 				// disallow if out of bounds,  allow to insert if empty
 				if (at > children.size && at > 0) {
 					Gdx.app.error("INSERT", "cannot insert " + what + " to " + into + " at " + at + " as its out of range");
@@ -91,8 +133,6 @@ public class ReflectionUtils {
 					// note in this class there are some more children that we need to deal with
 					if (into instanceof SingleRunningChildBranch) {
 						// set the field to null so it is recreated with correct size
-						Field randomChildren = ClassReflection.getDeclaredField(SingleRunningChildBranch.class, "randomChildren");
-						randomChildren.setAccessible(true);
 						randomChildren.set(into, null);
 					}
 				} else {
@@ -103,12 +143,10 @@ public class ReflectionUtils {
 				return true;
 			} else if (into instanceof Decorator) {
 				// can insert if decorator is empty
-				Field field = ClassReflection.getDeclaredField(Decorator.class, "child");
-				field.setAccessible(true);
-				Object old = field.get(into);
+				Object old = decoratorChild.get(into);
 				// ignore at, just replace
 				if (old == null || old != what) {
-					field.set(into, what);
+					decoratorChild.set(into, what);
 					return true;
 				} else {
 					Gdx.app.error("INSERT", "cannot insert " + what + " to " + into + " as its a decorator");
@@ -126,25 +164,19 @@ public class ReflectionUtils {
 		try {
 			// we need to check it task is in target before we add, as that will happen on init
 			if (from instanceof BranchTask) {
-				Field field = ClassReflection.getDeclaredField(BranchTask.class, "children");
-				field.setAccessible(true);
-				@SuppressWarnings("unchecked") Array<Task> children = (Array<Task>)field.get(from);
+				@SuppressWarnings("unchecked") Array<Task> children = (Array<Task>)branchChildren.get(from);
 				if (children.removeValue(what, true)) {
 					// note in this class there are some more children that we need to deal with
 					if (from instanceof SingleRunningChildBranch) {
 						// set the field to null so it is recreated with correct size
-						Field randomChildren = ClassReflection.getDeclaredField(SingleRunningChildBranch.class, "randomChildren");
-						randomChildren.setAccessible(true);
 						randomChildren.set(from, null);
 					}
 				}
 				return false;
 			} else if (from instanceof Decorator) {
-				Field field = ClassReflection.getDeclaredField(Decorator.class, "child");
-				field.setAccessible(true);
-				Object old = field.get(from);
+				Object old = decoratorChild.get(from);
 				if (old == what || old == null) {
-					field.set(from, null);
+					decoratorChild.set(from, null);
 				} else {
 					return false;
 				}
@@ -165,12 +197,11 @@ public class ReflectionUtils {
 	 * @return if replacement was successful
 	 */
 	public static boolean replaceRoot (BehaviorTree tree, BehaviorTree with) {
-		tree.reset();
-		with.reset();
+		// reset() would clear the root and the blackboard, we only want to stop running tasks
+		tree.resetTask();
+		with.resetTask();
 		try {
-			Field field = ClassReflection.getDeclaredField(BehaviorTree.class, "rootTask");
-			field.setAccessible(true);
-			field.set(tree, field.get(with));
+			treeRoot.set(tree, treeRoot.get(with));
 			return true;
 		} catch (ReflectionException e) {
 			e.printStackTrace();
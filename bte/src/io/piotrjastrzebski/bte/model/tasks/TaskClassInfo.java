@@ -0,0 +1,430 @@
+package io.piotrjastrzebski.bte.model.tasks;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.ai.btree.Task;
+import com.badlogic.gdx.ai.btree.annotation.TaskAttribute;
+import com.badlogic.gdx.ai.btree.annotation.TaskConstraint;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.GdxRuntimeException;
+import com.badlogic.gdx.utils.reflect.Annotation;
+import com.badlogic.gdx.utils.reflect.ClassReflection;
+import com.badlogic.gdx.utils.reflect.Field;
+import com.badlogic.gdx.utils.reflect.ReflectionException;
+import io.piotrjastrzebski.bte.TaskComment;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reflection data of a {@link Task} class, computed once per class
+ *
+ * If bte-processor generated {@link TaskMeta} for the class it is used instead of reflection
+ * Instances are immutable and the registry is thread safe, so it can be used from background writers
+ */
+public final class TaskClassInfo {
+	private final static String TAG = TaskClassInfo.class.getSimpleName();
+	private static final ConcurrentHashMap<Class<?>, TaskClassInfo> registry = new ConcurrentHashMap<>();
+
+	/**
+	 * @param cls task class
+	 * @return info for given class, created on first call
+	 */
+	public static TaskClassInfo get (Class<? extends Task> cls) {
+		if (cls == null) throw new IllegalArgumentException("Class cannot be null");
+		TaskClassInfo info = registry.get(cls);
+		if (info == null) {
+			info = new TaskClassInfo(cls);
+			TaskClassInfo old = registry.putIfAbsent(cls, info);
+			if (old != null) {
+				info = old;
+			}
+		}
+		return info;
+	}
+
+	/**
+	 * @return info for class of given task
+	 */
+	public static TaskClassInfo get (Task task) {
+		return get(task.getClass());
+	}
+
+	/**
+	 * Clear all cached infos, they will be recreated when needed
+	 */
+	public static void clear () {
+		registry.clear();
+	}
+
+	private final Class<? extends Task> type;
+	private final int minChildren;
+	private final int maxChildren;
+	private final String comment;
+	private final String alias;
+	private final Attribute[] attributes;
+	private final boolean generated;
+
+	private TaskClassInfo (Class<? extends Task> type) {
+		this.type = type;
+		String name = type.getSimpleName();
+		alias = Character.toLowerCase(name.charAt(0)) + (name.length() > 1 ? name.substring(1) : "");
+
+		TaskMeta meta = findMeta(type);
+		generated = meta != null;
+		if (meta != null) {
+			minChildren = meta.getMinChildren();
+			maxChildren = meta.getMaxChildren();
+			comment = meta.getComment();
+			attributes = new Attribute[meta.getAttributeCount()];
+			for (int i = 0; i < attributes.length; i++) {
+				attributes[i] = new Attribute(meta, i);
+			}
+			if (minChildren < 0) {
+				Gdx.app.error(TAG, "TaskConstraint annotation not found on class " + type);
+			}
+			return;
+		}
+
+		TaskConstraint constraint = findConstraint(type);
+		if (constraint != null) {
+			minChildren = constraint.minChildren();
+			maxChildren = constraint.maxChildren();
+		} else {
+			Gdx.app.error(TAG, "TaskConstraint annotation not found on class " + type);
+			minChildren = -1;
+			maxChildren = -1;
+		}
+
+		Annotation a = ClassReflection.getDeclaredAnnotation(type, TaskComment.class);
+		String comment = null;
+		if (a != null) {
+			String value = a.getAnnotation(TaskComment.class).value();
+			if (value.length() > 0) {
+				comment = value;
+			}
+		}
+		this.comment = comment;
+
+		Array<Attribute> found = new Array<>(Attribute.class);
+		for (Field f : ClassReflection.getFields(type)) {
+			a = f.getDeclaredAnnotation(TaskAttribute.class);
+			if (a == null)
+				continue;
+			found.add(new Attribute(f, a.getAnnotation(TaskAttribute.class), f.getDeclaredAnnotation(TaskComment.class)));
+		}
+		attributes = found.toArray();
+	}
+
+	private static TaskMeta findMeta (Class<?> type) {
+		Class<?> metaClass;
+		try {
+			metaClass = ClassReflection.forName(type.getName() + TaskMeta.SUFFIX);
+		} catch (ReflectionException e) {
+			// not generated, we will use reflection
+			return null;
+		}
+		try {
+			return (TaskMeta)ClassReflection.newInstance(metaClass);
+		} catch (ReflectionException | ClassCastException e) {
+			Gdx.app.error(TAG, "Invalid generated meta " + metaClass + ", using reflection", e);
+		}
+		return null;
+	}
+
+	private static TaskConstraint findConstraint (Class<?> cls) {
+		// walk the class hierarchy till we get the annotation
+		while (cls != null && cls != Object.class) {
+			Annotation annotation = ClassReflection.getDeclaredAnnotation(cls, TaskConstraint.class);
+			if (annotation != null) {
+				return annotation.getAnnotation(TaskConstraint.class);
+			}
+			cls = cls.getSuperclass();
+		}
+		return null;
+	}
+
+	public Class<? extends Task> getType () {
+		return type;
+	}
+
+	/**
+	 * @return min children from {@link TaskConstraint} or -1 if class is not annotated
+	 */
+	public int getMinChildren () {
+		return minChildren;
+	}
+
+	/**
+	 * @return max children from {@link TaskConstraint} or -1 if class is not annotated
+	 */
+	public int getMaxChildren () {
+		return maxChildren;
+	}
+
+	/**
+	 * @return value of {@link TaskComment} on the class or null
+	 */
+	public String getComment () {
+		return comment;
+	}
+
+	/**
+	 * @return default alias generated from class name
+	 */
+	public String getAlias () {
+		return alias;
+	}
+
+	/**
+	 * @return number of fields annotated with {@link TaskAttribute}
+	 */
+	public int getAttributeCount () {
+		return attributes.length;
+	}
+
+	/**
+	 * @param index index of attribute, in declaration order
+	 * @return attribute at given index
+	 */
+	public Attribute getAttribute (int index) {
+		return attributes[index];
+	}
+
+	/**
+	 * @return if this info comes from generated {@link TaskMeta}
+	 */
+	public boolean isGenerated () {
+		return generated;
+	}
+
+	@Override public String toString () {
+		return "TaskClassInfo{" + type.getSimpleName() + (generated ? ", generated" : "") + "}";
+	}
+
+	/**
+	 * Field of a task annotated with {@link TaskAttribute}
+	 *
+	 * Typed accessors read and write primitive fields directly, without boxing
+	 * Values are accessed through generated {@link TaskMeta} if there is one, or through the field
+	 */
+	public static final class Attribute {
+		private final java.lang.reflect.Field field;
+		private final TaskMeta meta;
+		private final int index;
+		private final Class type;
+		private final String name;
+		private final boolean required;
+		private final String comment;
+		private final boolean skipName;
+
+		private Attribute (TaskMeta meta, int index) {
+			this.meta = meta;
+			this.index = index;
+			field = null;
+			type = meta.getType(index);
+			name = meta.getName(index);
+			required = meta.isRequired(index);
+			comment = meta.getAttributeComment(index);
+			skipName = meta.skipName(index);
+		}
+
+		private Attribute (Field field, TaskAttribute attribute, Annotation comment) {
+			meta = null;
+			index = -1;
+			type = field.getType();
+			// we want the actual field, gdx wrapper only has boxing accessors
+			try {
+				this.field = field.getDeclaringClass().getDeclaredField(field.getName());
+				this.field.setAccessible(true);
+			} catch (NoSuchFieldException | SecurityException e) {
+				throw new GdxRuntimeException("Failed to access field " + field.getName() + " in " + field.getDeclaringClass(), e);
+			}
+			// prefer name from annotation if there is one
+			String name = attribute.name();
+			if (name == null || name.length() == 0) {
+				name = field.getName();
+			}
+			this.name = name;
+			required = attribute.required();
+			if (comment != null) {
+				TaskComment tc = comment.getAnnotation(TaskComment.class);
+				this.comment = tc.value().trim();
+				skipName = tc.skipFieldName();
+			} else {
+				this.comment = null;
+				skipName = false;
+			}
+		}
+
+		/**
+		 * @return value of this attribute in given task, primitives are boxed
+		 * @throws ReflectionException if the value can't be read
+		 */
+		public Object get (Task task) throws ReflectionException {
+			if (meta != null) return meta.get(task, index);
+			try {
+				return field.get(task);
+			} catch (IllegalAccessException | IllegalArgumentException e) {
+				throw failed("get", e);
+			}
+		}
+
+		/**
+		 * @param task task to set the value in
+		 * @param value value of correct type
+		 * @throws ReflectionException if the value can't be set
+		 */
+		public void set (Task task, Object value) throws ReflectionException {
+			if (meta != null) {
+				meta.set(task, index, value);
+				return;
+			}
+			try {
+				field.set(task, value);
+			} catch (IllegalAccessException | IllegalArgumentException e) {
+				throw failed("set", e);
+			}
+		}
+
+		public int getInt (Task task) throws ReflectionException {
+			if (meta != null) return meta.getInt(task, index);
+			try {
+				return field.getInt(task);
+			} catch (IllegalAccessException | IllegalArgumentException e) {
+				throw failed("get", e);
+			}
+		}
+
+		public void setInt (Task task, int value) throws ReflectionException {
+			if (meta != null) {
+				meta.setInt(task, index, value);
+				return;
+			}
+			try {
+				field.setInt(task, value);
+			} catch (IllegalAccessException | IllegalArgumentException e) {
+				throw failed("set", e);
+			}
+		}
+
+		public long getLong (Task task) throws ReflectionException {
+			if (meta != null) return meta.getLong(task, index);
+			try {
+				return field.getLong(task);
+			} catch (IllegalAccessException | IllegalArgumentException e) {
+				throw failed("get", e);
+			}
+		}
+
+		public void setLong (Task task, long value) throws ReflectionException {
+			if (meta != null) {
+				meta.setLong(task, index, value);
+				return;
+			}
+			try {
+				field.setLong(task, value);
+			} catch (IllegalAccessException | IllegalArgumentException e) {
+				throw failed("set", e);
+			}
+		}
+
+		public float getFloat (Task task) throws ReflectionException {
+			if (meta != null) return meta.getFloat(task, index);
+			try {
+				return field.getFloat(task);
+			} catch (IllegalAccessException | IllegalArgumentException e) {
+				throw failed("get", e);
+			}
+		}
+
+		public void setFloat (Task task, float value) throws ReflectionException {
+			if (meta != null) {
+				meta.setFloat(task, index, value);
+				return;
+			}
+			try {
+				field.setFloat(task, value);
+			} catch (IllegalAccessException | IllegalArgumentException e) {
+				throw failed("set", e);
+			}
+		}
+
+		public double getDouble (Task task) throws ReflectionException {
+			if (meta != null) return meta.getDouble(task, index);
+			try {
+				return field.getDouble(task);
+			} catch (IllegalAccessException | IllegalArgumentException e) {
+				throw failed("get", e);
+			}
+		}
+
+		public void setDouble (Task task, double value) throws ReflectionException {
+			if (meta != null) {
+				meta.setDouble(task, index, value);
+				return;
+			}
+			try {
+				field.setDouble(task, value);
+			} catch (IllegalAccessException | IllegalArgumentException e) {
+				throw failed("set", e);
+			}
+		}
+
+		public boolean getBoolean (Task task) throws ReflectionException {
+			if (meta != null) return meta.getBoolean(task, index);
+			try {
+				return field.getBoolean(task);
+			} catch (IllegalAccessException | IllegalArgumentException e) {
+				throw failed("get", e);
+			}
+		}
+
+		public void setBoolean (Task task, boolean value) throws ReflectionException {
+			if (meta != null) {
+				meta.setBoolean(task, index, value);
+				return;
+			}
+			try {
+				field.setBoolean(task, value);
+			} catch (IllegalAccessException | IllegalArgumentException e) {
+				throw failed("set", e);
+			}
+		}
+
+		private ReflectionException failed (String what, Exception e) {
+			return new ReflectionException("Failed to " + what + " field " + field.getName() + " of " + field.getDeclaringClass(), e);
+		}
+
+		/**
+		 * @return name of attribute as used in tree files
+		 */
+		public String getName () {
+			return name;
+		}
+
+		public Class getType () {
+			return type;
+		}
+
+		public boolean isRequired () {
+			return required;
+		}
+
+		/**
+		 * @return value of {@link TaskComment} on the field or null
+		 */
+		public String getComment () {
+			return comment;
+		}
+
+		/**
+		 * @return if field name should be hidden, only comment will be shown
+		 */
+		public boolean skipName () {
+			return skipName;
+		}
+
+		@Override public String toString () {
+			return "Attribute{" + name + "}";
+		}
+	}
+}
@@ -0,0 +1,80 @@
+package io.piotrjastrzebski.bte.model.tasks;
+
+import com.badlogic.gdx.ai.btree.Task;
+
+/**
+ * Metadata of a {@link Task} class generated at compile time by bte-processor
+ *
+ * Generated class is named after the task class with {@link #SUFFIX}, eg {@code my.tasks.Walk$$TaskMeta}
+ * {@link TaskClassInfo} uses it when present, otherwise the task class is inspected with reflection
+ * Attributes are indexed in the same order as reflection would return them
+ */
+@SuppressWarnings("rawtypes")
+public interface TaskMeta {
+	String SUFFIX = "$$TaskMeta";
+
+	/**
+	 * @return min children from {@link com.badlogic.gdx.ai.btree.annotation.TaskConstraint} or -1 if there is none
+	 */
+	int getMinChildren ();
+
+	/**
+	 * @return max children from {@link com.badlogic.gdx.ai.btree.annotation.TaskConstraint} or -1 if there is none
+	 */
+	int getMaxChildren ();
+
+	/**
+	 * @return value of {@link io.piotrjastrzebski.bte.TaskComment} on the class or null
+	 */
+	String getComment ();
+
+	/**
+	 * @return number of fields annotated with {@link com.badlogic.gdx.ai.btree.annotation.TaskAttribute}
+	 */
+	int getAttributeCount ();
+
+	/**
+	 * @return name of the java field
+	 */
+	String getFieldName (int index);
+
+	/**
+	 * @return name of attribute, from annotation or field name
+	 */
+	String getName (int index);
+
+	Class getType (int index);
+
+	boolean isRequired (int index);
+
+	/**
+	 * @return trimmed value of {@link io.piotrjastrzebski.bte.TaskComment} on the field or null
+	 */
+	String getAttributeComment (int index);
+
+	boolean skipName (int index);
+
+	Object get (Task task, int index);
+
+	void set (Task task, int index, Object value);
+
+	int getInt (Task task, int index);
+
+	void setInt (Task task, int index, int value);
+
+	long getLong (Task task, int index);
+
+	void setLong (Task task, int index, long value);
+
+	float getFloat (Task task, int index);
+
+	void setFloat (Task task, int index, float value);
+
+	double getDouble (Task task, int index);
+
+	void setDouble (Task task, int index, double value);
+
+	boolean getBoolean (Task task, int index);
+
+	void setBoolean (Task task, int index, boolean value);
+}
@@ -7,10 +7,8 @@ import com.badlogic.gdx.ai.btree.decorator.Repeat;
 import com.badlogic.gdx.ai.utils.random.ConstantIntegerDistribution;
 import com.badlogic.gdx.utils.Array;
 import com.badlogic.gdx.utils.Pool;
-import com.badlogic.gdx.utils.reflect.Annotation;
 import com.badlogic.gdx.utils.reflect.ClassReflection;
 import com.badlogic.gdx.utils.reflect.ReflectionException;
-import io.piotrjastrzebski.bte.TaskComment;
 import io.piotrjastrzebski.bte.TaskInjector;
 import io.piotrjastrzebski.bte.model.BehaviorTreeModel;
 import io.piotrjastrzebski.bte.model.tasks.fields.EditableFields;
@@ -90,12 +88,19 @@ public abstract class TaskModel implements Pool.Poolable {
 	}
 
 	protected TaskModel parent;
+	// index of this task in children of its parent, checked when used, so it doesn't have to be kept up to date
+	protected int childId = -1;
 	protected TaskModel guard;
 	protected Task wrapped;
 	// NOTE there aren't that many children per task, 4 is a decent start
 	protected Array<TaskModel> children = new Array<>(4);
 	protected boolean init;
 	protected boolean valid;
+	// cached state of this subtree is out of date, if set all parents are dirty as well
+	protected boolean dirty = true;
+	// structural hash of this subtree, recalculated when needed after markDirty()
+	protected long hash;
+	protected boolean hashDirty = true;
 	protected boolean readOnly;
 	protected boolean isGuard;
 	protected TaskModel guardedTask;
@@ -106,14 +111,21 @@ public abstract class TaskModel implements Pool.Poolable {
 	protected String comment;
 	// user comment from loaded tree
 	protected String userComment;
+	// created on first access, they are needed only when task is edited
 	protected Array<EditableField> fields = new Array<>();
+	protected boolean hasFields;
 
 	public void init (Task task, BehaviorTreeModel model) {
 		this.model = model;
 		init = true;
+		dirty = true;
+		hashDirty = true;
 		wrapped = task;
-		minChildren = ReflectionUtils.getMinChildren(task);
-		maxChildren = ReflectionUtils.getMaxChildren(task);
+		model.register(this);
+		TaskClassInfo info = TaskClassInfo.get(task);
+		minChildren = info.getMinChildren();
+		maxChildren = info.getMaxChildren();
+		comment = info.getComment();
 		for (int i = 0; i < task.getChildCount(); i++) {
 			TaskModel child = wrap(task.getChild(i), model);
 			child.setParent(this);
@@ -124,17 +136,6 @@ public abstract class TaskModel implements Pool.Poolable {
 			this.guard = wrap(guard, model);
 			this.guard.setIsGuard(this);
 		}
-		EditableFields.get(this, fields);
-
-		Class<? extends Task> aClass = wrapped.getClass();
-		Annotation a = ClassReflection.getDeclaredAnnotation(aClass, TaskComment.class);
-		if (a != null) {
-			TaskComment tc = a.getAnnotation(TaskComment.class);
-			String value = tc.value();
-			if (value.length() > 0) {
-				comment = value;
-			}
-		}
 	}
 
 	public void setIsGuard (TaskModel guarded) {
@@ -158,30 +159,92 @@ public abstract class TaskModel implements Pool.Poolable {
 		return !readOnly && children.size < maxChildren;
 	}
 
+	/**
+	 * Validity is cached, it is recalculated only for subtrees marked with {@link #markDirty()}
+	 * @return if this task and its children are valid
+	 */
 	public boolean isValid () {
+		if (!dirty) return valid;
 		valid = !(children.size < minChildren || children.size > maxChildren);
 		if (guard != null) {
-//			guard.validate();
 			valid &= guard.isValid();
 		}
-		for (TaskModel child : children) {
-//			child.validate();
-			valid &= child.isValid();
+		for (int i = 0; i < children.size; i++) {
+			valid &= children.get(i).isValid();
 		}
+		dirty = false;
 		return valid;
 	}
 
-//	public void validate () {
-//		valid = !(children.size < minChildren || children.size > maxChildren);
-//		if (guard != null) {
-//			guard.validate();
-//			valid &= guard.isValid();
-//		}
-//		for (TaskModel child : children) {
-//			child.validate();
-//			valid &= child.isValid();
-//		}
-//	}
+	private static final long HASH_SEED = 0xcbf29ce484222325L;
+	/**
+	 * Structural hash of this task and its children, it depends on classes, attribute values, user comments and guards
+	 * Hash is cached, it is recalculated only for subtrees marked with {@link #markDirty()}
+	 * It is stable between runs, so it can be used to identify saved trees
+	 * @return hash of this subtree
+	 */
+	public long getHash () {
+		if (!hashDirty) return hash;
+		long h = mix(HASH_SEED, wrapped != null ? wrapped.getClass().getName().hashCode() : type.name().hashCode());
+		if (wrapped != null) {
+			h = ReflectionUtils.hashAttributes(wrapped, h);
+		}
+		h = mix(h, userComment != null ? userComment.hashCode() : 0);
+		hash = hashChildren(h);
+		hashDirty = false;
+		return hash;
+	}
+
+	protected long hashChildren (long h) {
+		// guard of a task in GuardModel is its sibling, GuardModel will hash it
+		if (guard != null && (parent == null || parent.type != Type.GUARD)) {
+			h = mix(h, guard.getHash());
+		}
+		h = mix(h, children.size);
+		for (int i = 0; i < children.size; i++) {
+			h = mix(h, children.get(i).getHash());
+		}
+		return h;
+	}
+
+	static long mix (long hash, long value) {
+		hash ^= value;
+		hash *= 0x9e3779b97f4a7c15L;
+		return hash ^ (hash >>> 32);
+	}
+
+	/**
+	 * Mark this task and its parents as modified, so their cached state is recalculated when needed
+	 * Must be called after structure of this task or value of its attributes changed
+	 */
+	public void markDirty () {
+		TaskModel task = this;
+		// if task is already dirty, its parents are dirty as well
+		while (task != null && !(task.dirty && task.hashDirty)) {
+			task.dirty = true;
+			task.hashDirty = true;
+			if (task.parent == null && task.isGuard) {
+				task = task.guardedTask;
+			} else {
+				task = task.parent;
+			}
+		}
+	}
+
+	/**
+	 * Mark this task as modified after attribute of wrapped task was changed
+	 */
+	public void attributeChanged () {
+		markDirty();
+		if (model != null) {
+			model.markDirty();
+			model.attributeChanged(this);
+		}
+	}
+
+	public boolean isDirty () {
+		return dirty;
+	}
 
 	public int getChildCount () {
 		return children.size;
@@ -200,13 +263,12 @@ public abstract class TaskModel implements Pool.Poolable {
 
 	/**
 	 * Check if given task is in this task
+	 * Walks parents of given task, so it is O(depth) instead of searching whole subtree of this task
 	 */
 	public boolean hasChild (TaskModel task) {
-		if (this == task) return true;
-		for (TaskModel child : children) {
-			if (child == task || child.hasChild(task)) {
-				return true;
-			}
+		while (task != null) {
+			if (task == this) return true;
+			task = task.parent;
 		}
 		return false;
 	}
@@ -222,6 +284,10 @@ public abstract class TaskModel implements Pool.Poolable {
 		children.insert(at, task);
 		task.setParent(this);
 		task.insertInto(this, at);
+		// task may have been removed before, so its not registered anymore
+		model.registerAll(task);
+		model.taskAdded(this, task, at);
+		markDirty();
 	}
 
 	protected void insertInto (TaskModel parent, int at) {
@@ -229,17 +295,36 @@ public abstract class TaskModel implements Pool.Poolable {
 	}
 
 	public void removeChild (TaskModel task) {
-		children.removeValue(task, true);
+		int at = getChildId(task);
+		if (at >= 0) {
+			children.removeIndex(at);
+			model.taskRemoved(this, task, at);
+		}
 		task.removeFrom(this);
 		task.setParent(null);
+		model.unregisterAll(task);
+		markDirty();
 	}
 
 	protected void removeFrom (TaskModel parent) {
 		ReflectionUtils.remove(wrapped, parent.wrapped);
 	}
 
+	/**
+	 * Cached index is used if it is still valid, otherwise all children are indexed again
+	 * Cost of a change in children is paid once, by the first lookup after it
+	 * @return index of given task in children of this task or -1 if it is not a child
+	 */
 	public int getChildId (TaskModel what) {
-		return children.indexOf(what, true);
+		int id = what.childId;
+		if (id >= 0 && id < children.size && children.get(id) == what) return id;
+		id = -1;
+		for (int i = 0; i < children.size; i++) {
+			TaskModel child = children.get(i);
+			child.childId = i;
+			if (child == what) id = i;
+		}
+		return id;
 	}
 
 	public Type getType () {
@@ -252,12 +337,18 @@ public abstract class TaskModel implements Pool.Poolable {
 		guard = newGuard;
 		wrapped.setGuard(newGuard.wrapped);
 		newGuard.setIsGuard(this);
+		model.registerAll(newGuard);
+		markDirty();
 	}
 
 	@SuppressWarnings("unchecked")
 	public void removeGuard () {
+		if (guard != null) {
+			model.unregisterAll(guard);
+		}
 		guard = null;
 		wrapped.setGuard(null);
+		markDirty();
 	}
 
 	public TaskModel getGuarded () {
@@ -316,15 +407,21 @@ public abstract class TaskModel implements Pool.Poolable {
 		guard = null;
 		guardedTask = null;
 		isGuard = false;
+		if (model != null) {
+			model.unregister(this);
+		}
 		wrapped = null;
 		parent = null;
+		childId = -1;
 		init = false;
+		dirty = true;
+		hashDirty = true;
 		name = null;
 		readOnly = false;
 		comment = null;
 		userComment = null;
 		listeners.clear();
-		EditableFields.release(fields);
+		releaseEditableFields();
 	}
 
 	public boolean hasUserComment () {
@@ -338,6 +435,7 @@ public abstract class TaskModel implements Pool.Poolable {
 	public TaskModel setUserComment (String userComment) {
 		if (userComment != null) userComment = userComment.trim();
 		this.userComment = userComment;
+		markDirty();
 		return this;
 	}
 
@@ -345,10 +443,26 @@ public abstract class TaskModel implements Pool.Poolable {
 		return comment;
 	}
 
+	/**
+	 * Fields are created on first access, call {@link #releaseEditableFields()} when they are no longer needed
+	 * @return editable fields of wrapped task and user comment
+	 */
 	public Array<EditableField> getEditableFields () {
+		if (!hasFields && wrapped != null) {
+			EditableFields.get(this, fields);
+			hasFields = true;
+		}
 		return fields;
 	}
 
+	/**
+	 * Release editable fields, they will be created again on next access
+	 */
+	public void releaseEditableFields () {
+		EditableFields.release(fields);
+		hasFields = false;
+	}
+
 	public boolean isReadOnly () {
 		return readOnly;
 	}
@@ -358,8 +472,8 @@ public abstract class TaskModel implements Pool.Poolable {
 	public abstract TaskModel copy();
 
 	public TaskModel getModelTask (Task task) {
+		// NOTE this walks the whole subtree, use BehaviorTreeModel#getModelTask(Task) if possible
 		if (wrapped == task) return this;
-		// TODO use a map for this garbage?
 		if (guard != null) {
 			TaskModel found = guard.getModelTask(task);
 			if (found != null) return found;
@@ -1,14 +1,11 @@
 package io.piotrjastrzebski.bte.model.tasks.fields;
 
+import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.ai.btree.Task;
-import com.badlogic.gdx.ai.btree.annotation.TaskAttribute;
 import com.badlogic.gdx.utils.Array;
 import com.badlogic.gdx.utils.Pool;
-import com.badlogic.gdx.utils.reflect.Annotation;
-import com.badlogic.gdx.utils.reflect.ClassReflection;
-import com.badlogic.gdx.utils.reflect.Field;
 import com.badlogic.gdx.utils.reflect.ReflectionException;
-import io.piotrjastrzebski.bte.TaskComment;
+import io.piotrjastrzebski.bte.model.tasks.TaskClassInfo;
 import io.piotrjastrzebski.bte.model.tasks.TaskModel;
 
 /**
@@ -17,6 +14,7 @@ import io.piotrjastrzebski.bte.model.tasks.TaskModel;
  * Created by EvilEntity on 15/02/2016.
  */
 public class EditableFields {
+	private static final String TAG = EditableFields.class.getSimpleName();
 
 	public interface EditableField {
 		/**
@@ -62,33 +60,56 @@ public class EditableFields {
 		void free ();
 	}
 
+	/**
+	 * Field with primitive accessors that do not box, they can be used only if {@link #getType()} matches
+	 */
+	public interface TypedEditableField extends EditableField {
+		int getInt ();
+
+		void setInt (int value);
+
+		long getLong ();
+
+		void setLong (long value);
+
+		float getFloat ();
+
+		void setFloat (float value);
+
+		double getDouble ();
+
+		void setDouble (double value);
+
+		boolean getBoolean ();
+
+		void setBoolean (boolean value);
+	}
+
 	/**
 	 * Get all editable fields for this TaskModel wrapped task + userComment
 	 */
 	public static Array<EditableField> get (TaskModel modelTask, Array<EditableField> out) {
 		out.add(CommentEditableField.obtain(modelTask));
-		get(modelTask.getWrapped(), out);
+		get(modelTask, modelTask.getWrapped(), out);
 		return out;
 	}
 
-	private static Array<EditableField> get (Task task, Array<EditableField> out) {
-		Class<?> aClass = task.getClass();
-		Field[] fields = ClassReflection.getFields(aClass);
-		for (Field f : fields) {
-			Annotation a = f.getDeclaredAnnotation(TaskAttribute.class);
-			if (a == null)
-				continue;
-			TaskAttribute annotation = a.getAnnotation(TaskAttribute.class);
-			a = f.getDeclaredAnnotation(TaskComment.class);
-			TaskComment tc = null;
-			if (a != null) {
-				tc = a.getAnnotation(TaskComment.class);
-			}
-			addField(task, annotation, f, tc, out);
+	private static Array<EditableField> get (TaskModel modelTask, Task task, Array<EditableField> out) {
+		TaskClassInfo info = TaskClassInfo.get(task);
+		for (int i = 0, n = info.getAttributeCount(); i < n; i++) {
+			out.add(BaseEditableField.obtain(modelTask, task, info.getAttribute(i)));
 		}
 		return out;
 	}
 
+	/**
+	 * @return given field if it has typed accessors, otherwise it is wrapped in an adapter that boxes the values
+	 */
+	public static TypedEditableField typed (EditableField field) {
+		if (field instanceof TypedEditableField) return (TypedEditableField)field;
+		return new BoxingEditableField(field);
+	}
+
 	public static void release (Array<EditableField> fields) {
 		for (EditableField field : fields) {
 			field.free();
@@ -96,51 +117,31 @@ public class EditableFields {
 		fields.clear();
 	}
 
-	private static void addField (Task task, TaskAttribute ann, Field field, TaskComment tc, Array<EditableField> out) {
-		String name = ann.name();
-		if (name == null || name.length() == 0) {
-			name = field.getName();
-		}
-		if (tc != null) {
-			String comment = tc.value().trim();
-			boolean skipName = tc.skipFieldName();
-			out.add(BaseEditableField.obtain(name, task, field, ann.required(), comment, skipName));
-		} else {
-			out.add(BaseEditableField.obtain(name, task, field, ann.required(), null, false));
-		}
-	}
-
-	private static class BaseEditableField implements EditableField, Pool.Poolable {
+	private static class BaseEditableField implements TypedEditableField, Pool.Poolable {
 		private static Pool<BaseEditableField> pool = new Pool<BaseEditableField>() {
 			@Override protected BaseEditableField newObject () {
 				return new BaseEditableField();
 			}
 		};
 
-		public static EditableField obtain (String name, Task task, Field field, boolean required, String comment, boolean skipName) {
-			return pool.obtain().init(name, task, field, required, comment, skipName);
+		public static EditableField obtain (TaskModel modelTask, Task task, TaskClassInfo.Attribute attribute) {
+			return pool.obtain().init(modelTask, task, attribute);
 		}
 
-		private String name;
+		private TaskModel modelTask;
 		private Task task;
-		private Field field;
-		private boolean required;
-		private String comment;
-		private boolean skipName;
+		private TaskClassInfo.Attribute attribute;
 
-		private EditableField init (String name, Task task, Field field, boolean required, String comment, boolean skipName) {
-			this.name = name;
+		private EditableField init (TaskModel modelTask, Task task, TaskClassInfo.Attribute attribute) {
+			this.modelTask = modelTask;
 			this.task = task;
-			this.field = field;
-			this.required = required;
-			this.comment = comment;
-			this.skipName = skipName;
+			this.attribute = attribute;
 			return this;
 		}
 
 		@Override public Object get () {
 			try {
-				return field.get(task);
+				return attribute.get(task);
 			} catch (ReflectionException e) {
 				e.printStackTrace();
 			}
@@ -148,24 +149,120 @@ public class EditableFields {
 		}
 
 		@Override public void set (Object value) {
-			if (required && value == null)
-				throw new AssertionError("Field " + name + " in " + task.getClass().getSimpleName() + " is required!");
+			if (attribute.isRequired() && value == null)
+				throw new AssertionError("Field " + attribute.getName() + " in " + task.getClass().getSimpleName() + " is required!");
 			// TOOD proper check, this fails for float.class Float.class etc
 //			if (value != null && !field.getType().isAssignableFrom(value.getClass()))
 //				throw new AssertionError("Invalid value type for field " + name + ", got " + value.getClass() + ", expected " + field.getType());
 			try {
-				field.set(task, value);
+				attribute.set(task, value);
 			} catch (ReflectionException e) {
 				e.printStackTrace();
 			}
+			modelTask.attributeChanged();
+		}
+
+		@Override public int getInt () {
+			try {
+				return attribute.getInt(task);
+			} catch (ReflectionException e) {
+				Gdx.app.error(TAG, "Failed to get " + attribute.getName() + " of " + task.getClass(), e);
+			}
+			return 0;
+		}
+
+		@Override public void setInt (int value) {
+			try {
+				attribute.setInt(task, value);
+			} catch (ReflectionException e) {
+				Gdx.app.error(TAG, "Failed to set " + attribute.getName() + " of " + task.getClass(), e);
+				return;
+			}
+			modelTask.attributeChanged();
+		}
+
+		@Override public long getLong () {
+			try {
+				return attribute.getLong(task);
+			} catch (ReflectionException e) {
+				Gdx.app.error(TAG, "Failed to get " + attribute.getName() + " of " + task.getClass(), e);
+			}
+			return 0;
+		}
+
+		@Override public void setLong (long value) {
+			try {
+				attribute.setLong(task, value);
+			} catch (ReflectionException e) {
+				Gdx.app.error(TAG, "Failed to set " + attribute.getName() + " of " + task.getClass(), e);
+				return;
+			}
+			modelTask.attributeChanged();
+		}
+
+		@Override public float getFloat () {
+			try {
+				return attribute.getFloat(task);
+			} catch (ReflectionException e) {
+				Gdx.app.error(TAG, "Failed to get " + attribute.getName() + " of " + task.getClass(), e);
+			}
+			return 0;
+		}
+
+		@Override public void setFloat (float value) {
+			try {
+				attribute.setFloat(task, value);
+			} catch (ReflectionException e) {
+				Gdx.app.error(TAG, "Failed to set " + attribute.getName() + " of " + task.getClass(), e);
+				return;
+			}
+			modelTask.attributeChanged();
+		}
+
+		@Override public double getDouble () {
+			try {
+				return attribute.getDouble(task);
+			} catch (ReflectionException e) {
+				Gdx.app.error(TAG, "Failed to get " + attribute.getName() + " of " + task.getClass(), e);
+			}
+			return 0;
+		}
+
+		@Override public void setDouble (double value) {
+			try {
+				attribute.setDouble(task, value);
+			} catch (ReflectionException e) {
+				Gdx.app.error(TAG, "Failed to set " + attribute.getName() + " of " + task.getClass(), e);
+				return;
+			}
+			modelTask.attributeChanged();
+		}
+
+		@Override public boolean getBoolean () {
+			try {
+				return attribute.getBoolean(task);
+			} catch (ReflectionException e) {
+				Gdx.app.error(TAG, "Failed to get " + attribute.getName() + " of " + task.getClass(), e);
+			}
+			return false;
+		}
+
+		@Override public void setBoolean (boolean value) {
+			try {
+				attribute.setBoolean(task, value);
+			} catch (ReflectionException e) {
+				Gdx.app.error(TAG, "Failed to set " + attribute.getName() + " of " + task.getClass(), e);
+				return;
+			}
+			modelTask.attributeChanged();
 		}
 
 		@Override public String getName () {
-			return name;
+			return attribute.getName();
 		}
 
 		@Override public String getComment () {
-			return comment;
+			return attribute.getComment();
 		}
 
 		@Override public Object getOwner () {
@@ -173,15 +270,15 @@ public class EditableFields {
 		}
 
 		@Override public Class getType () {
-			return field.getType();
+			return attribute.getType();
 		}
 
 		@Override public boolean isRequired () {
-			return required;
+			return attribute.isRequired();
 		}
 
 		@Override public boolean skipName () {
-			return skipName;
+			return attribute.skipName();
 		}
 
 		@Override public void free () {
@@ -189,9 +286,9 @@ public class EditableFields {
 		}
 
 		@Override public void reset () {
-			name = null;
+			modelTask = null;
 			task = null;
-			field = null;
+			attribute = null;
 		}
 	}
 
@@ -221,6 +318,7 @@ public class EditableFields {
 			if (value.getClass() != String.class)
 				throw new AssertionError("Invalid value type for field "+getName()+", got " + value.getClass() + ", expected String.class");
 			owner.setUserComment((String)value);
+			owner.attributeChanged();
 		}
 
 		@Override public String getName () {
@@ -255,4 +353,95 @@ public class EditableFields {
 			owner = null;
 		}
 	}
+
+	/**
+	 * Typed accessors for a field that has only the boxed ones
+	 */
+	private static class BoxingEditableField implements TypedEditableField {
+		private final EditableField field;
+
+		BoxingEditableField (EditableField field) {
+			this.field = field;
+		}
+
+		@Override public int getInt () {
+			return (Integer)field.get();
+		}
+
+		@Override public void setInt (int value) {
+			field.set(value);
+		}
+
+		@Override public long getLong () {
+			return (Long)field.get();
+		}
+
+		@Override public void setLong (long value) {
+			field.set(value);
+		}
+
+		@Override public float getFloat () {
+			return (Float)field.get();
+		}
+
+		@Override public void setFloat (float value) {
+			field.set(value);
+		}
+
+		@Override public double getDouble () {
+			return (Double)field.get();
+		}
+
+		@Override public void setDouble (double value) {
+			field.set(value);
+		}
+
+		@Override public boolean getBoolean () {
+			return (Boolean)field.get();
+		}
+
+		@Override public void setBoolean (boolean value) {
+			field.set(value);
+		}
+
+		@Override public Object get () {
+			return field.get();
+		}
+
+		@Override public void set (Object object) {
+			field.set(object);
+		}
+
+		@Override public Object getOwner () {
+			return field.getOwner();
+		}
+
+		@Override public String getName () {
+			return field.getName();
+		}
+
+		@Override public String getComment () {
+			return field.getComment();
+		}
+
+		@Override public Class getType () {
+			return field.getType();
+		}
+
+		@Override public boolean isRequired () {
+			return field.isRequired();
+		}
+
+		@Override public boolean skipName () {
+			return field.skipName();
+		}
+
+		@Override public void free () {
+			field.free();
+		}
+
+		@Override public String toString () {
+			return field.toString();
+		}
+	}
 }
@@ -14,6 +14,7 @@ import com.badlogic.gdx.scenes.scene2d.ui.Table;
 import com.badlogic.gdx.scenes.scene2d.ui.Tree;
 import com.badlogic.gdx.scenes.scene2d.utils.*;
 import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.IdentityMap;
 import com.badlogic.gdx.utils.ObjectMap;
 import com.kotcrab.vis.ui.VisUI;
 import com.kotcrab.vis.ui.widget.*;
@@ -21,6 +22,7 @@ import com.kotcrab.vis.ui.widget.file.FileChooser;
 import com.kotcrab.vis.ui.widget.file.FileChooserAdapter;
 import io.piotrjastrzebski.bte.AIEditor;
 import io.piotrjastrzebski.bte.model.BehaviorTreeModel;
+import io.piotrjastrzebski.bte.model.ModelChange;
 import io.piotrjastrzebski.bte.model.tasks.TaskModel;
 import io.piotrjastrzebski.bte.view.edit.ViewTaskAttributeEdit;
 
@@ -37,6 +39,10 @@ public class BehaviorTreeView extends Table implements BehaviorTreeModel.ModelCh
 	protected VisScrollPane treeScrollPane;
 	protected VisTree taskDrawer;
 	protected VisTree tree;
+	protected ViewTreeTarget treeTarget;
+	protected VisTable treeView;
+	protected VirtualTree virtualTree;
+	protected boolean virtualized;
 	protected VisTable taskEdit;
 	protected DragAndDrop dad;
 	protected ViewTarget removeTarget;
@@ -44,7 +50,10 @@ public class BehaviorTreeView extends Table implements BehaviorTreeModel.ModelCh
 	protected final VisTextButton btToggle;
 	protected final VisTextButton btStep;
 	protected final VisTextButton btReset;
+	protected final VisTextButton btVirtual;
 	private Tree.Node selectedNode;
+	// status changes of tasks are applied once per frame
+	final StatusUpdater statusUpdater = new StatusUpdater();
 	private final ViewTaskAttributeEdit vtEdit;
 	private VisTextButton saveBtn;
 	private VisTextButton saveAsBtn;
@@ -110,12 +119,19 @@ public class BehaviorTreeView extends Table implements BehaviorTreeModel.ModelCh
 			}
 		});
 		btControls.add(btReset);
+		btVirtual = new VisTextButton("Virtual", "toggle");
+		btVirtual.addListener(new ChangeListener() {
+			@Override public void changed (ChangeEvent event, Actor actor) {
+				setVirtualized(btVirtual.isChecked());
+			}
+		});
+		btControls.add(btVirtual);
 
 		row();
 		taskDrawer = new VisTree();
 		taskDrawer.setYSpacing(-2);
 		taskDrawer.setFillParent(true);
-		VisTable treeView = new VisTable(true);
+		treeView = new VisTable(true);
 		tree = new VisTree() {
 			@Override public void setOverNode (Node overNode) {
 				Node old = tree.getOverNode();
@@ -124,7 +140,14 @@ public class BehaviorTreeView extends Table implements BehaviorTreeModel.ModelCh
 				}
 				super.setOverNode(overNode);
 			}
+
+			@Override public void layout () {
+				super.layout();
+				// nodes moved, drop target finds them again when needed
+				treeTarget.invalidateRows();
+			}
 		};
+		treeTarget = new ViewTreeTarget(this, tree);
 		tree.getSelection().setMultiple(false);
 		tree.addListener(new ChangeListener() {
 			@Override public void changed (ChangeEvent event, Actor actor) {
@@ -162,6 +185,12 @@ public class BehaviorTreeView extends Table implements BehaviorTreeModel.ModelCh
 			}
 		};
 		dad.addTarget(removeTarget);
+		dad.addTarget(treeTarget);
+	}
+
+	@Override public void act (float delta) {
+		super.act(delta);
+		statusUpdater.update(delta);
 	}
 
 	private FileHandle lastSave = null;
@@ -238,21 +267,63 @@ public class BehaviorTreeView extends Table implements BehaviorTreeModel.ModelCh
 //		Gdx.app.log(TAG, "selection changed from " + oldNode + " to " + newNode);
 		// add stuff to taskEdit
 		if (newNode instanceof ViewTask) {
-			TaskModel task = ((ViewTask)newNode).task;
-			if (task != null && task.getWrapped() != null) {
-				vtEdit.startEdit(task);
-			} else {
-				Gdx.app.error(TAG, "Error for " + task);
+			onTaskSelected(((ViewTask)newNode).task);
+		} else if (newNode == null) {
+			vtEdit.stopEdit();
+		}
+	}
+
+	void onTaskSelected (TaskModel task) {
+		if (task != null && task.getWrapped() != null) {
+			vtEdit.startEdit(task);
+		} else {
+			Gdx.app.error(TAG, "Error for " + task);
+		}
+	}
+
+	void onTaskDeselected () {
+		vtEdit.stopEdit();
+	}
+
+	/**
+	 * In virtualized mode only rows visible in the scroll pane have actors, use it for very large trees
+	 * @param virtualized if tree should be virtualized
+	 */
+	public void setVirtualized (boolean virtualized) {
+		if (this.virtualized == virtualized) return;
+		this.virtualized = virtualized;
+		if (btVirtual.isChecked() != virtualized) {
+			btVirtual.setChecked(virtualized);
+		}
+		if (virtualized) {
+			clearTree();
+			if (virtualTree == null) {
+				virtualTree = new VirtualTree(this);
 			}
+			virtualTree.register();
+			treeScrollPane.setActor(virtualTree);
+			virtualTree.rebuild(model.isInitialized() ? model.getRoot() : null);
+		} else {
+			virtualTree.unregister();
+			virtualTree.reset();
+			treeScrollPane.setActor(treeView);
+			rebuildTree();
 		}
 	}
 
+	public boolean isVirtualized () {
+		return virtualized;
+	}
+
 	private void onOverNodeChanged (Tree.Node oldNode, Tree.Node newNode) {
 
 	}
 
 	@Override public void onInit (BehaviorTreeModel model) {
 		this.model = model;
+		if (virtualized) {
+			virtualTree.reset();
+		}
 
 		rebuildTree();
 		saveBtn.setDisabled(false);
@@ -265,10 +336,16 @@ public class BehaviorTreeView extends Table implements BehaviorTreeModel.ModelCh
 			ViewTask.free((ViewTask)node);
 		}
 		tree.clearChildren();
+		// everything should be removed by now
+		taskToView.clear();
 	}
 
 	private void rebuildTree () {
 		clearTree();
+		if (virtualized) {
+			virtualTree.rebuild(model.isInitialized() ? model.getRoot() : null);
+			return;
+		}
 		if (model.isInitialized()) {
 			fillTree(null, model.getRoot());
 			tree.expandAll();
@@ -287,31 +364,229 @@ public class BehaviorTreeView extends Table implements BehaviorTreeModel.ModelCh
 		}
 	}
 
+	// model task -> view task, so we can find nodes affected by model changes
+	IdentityMap<TaskModel, ViewTask> taskToView = new IdentityMap<>();
+	private Array<TaskModel> changedParents = new Array<>();
+	private Array<ViewTask> detached = new Array<>();
+	private Array<ViewTask> refresh = new Array<>();
+
+	/**
+	 * Patch nodes affected by given changes, rest of the tree, including expanded state of nodes, is left as is
+	 */
+	private void updateTree (Array<ModelChange> changes) {
+		// children of includes are recreated, view tasks for old ones must go first, as their models could be reused already
+		for (int i = 0; i < changes.size; i++) {
+			ModelChange change = changes.get(i);
+			if (change.getType() != ModelChange.Type.ATTRIBUTE) continue;
+			ViewTask node = getViewTask(change.getTask());
+			if (node == null) continue;
+			if (change.getTask().getType() == TaskModel.Type.INCLUDE) {
+				Array children = node.getChildren();
+				for (int j = children.size - 1; j >= 0; j--) {
+					ViewTask child = (ViewTask)children.get(j);
+					node.remove(child);
+					freeNode(child);
+				}
+				changedParents.add(change.getTask());
+			}
+			refresh.add(node);
+		}
+		for (int i = 0; i < changes.size; i++) {
+			ModelChange change = changes.get(i);
+			TaskModel parent = change.getParent();
+			if (parent != null && !changedParents.contains(parent, true)) {
+				changedParents.add(parent);
+			}
+			TaskModel oldParent = change.getOldParent();
+			if (oldParent != null && !changedParents.contains(oldParent, true)) {
+				changedParents.add(oldParent);
+			}
+		}
+		for (int i = 0; i < changedParents.size; i++) {
+			ViewTask node = getViewTask(changedParents.get(i));
+			// parent could be removed or not created yet, if it was added in this batch
+			if (node != null) {
+				updateChildren(node);
+				refresh.add(node);
+			}
+		}
+		// nodes that were not added back are not in the tree anymore
+		for (int i = 0; i < detached.size; i++) {
+			ViewTask node = detached.get(i);
+			if (!isAttached(node)) {
+				freeNode(node);
+			}
+		}
+		for (int i = 0; i < changes.size; i++) {
+			ModelChange change = changes.get(i);
+			if (change.getType() == ModelChange.Type.ADDED || change.getType() == ModelChange.Type.MOVED) {
+				ViewTask node = getViewTask(change.getTask());
+				if (node != null) refresh.add(node);
+			}
+		}
+		// validity and guard state changes along the modified paths
+		for (int i = 0; i < refresh.size; i++) {
+			ViewTask node = refresh.get(i);
+			if (node.task == null) continue;
+			updateNameColors(node);
+			ViewTask parent = (ViewTask)node.getParent();
+			while (parent != null && parent.task != null) {
+				parent.updateNameColor();
+				parent = (ViewTask)parent.getParent();
+			}
+		}
+		changedParents.clear();
+		detached.clear();
+		refresh.clear();
+	}
+
+	/**
+	 * Make children of node match children of its model task, existing nodes are reused
+	 */
+	private void updateChildren (ViewTask node) {
+		TaskModel task = node.task;
+		Array children = node.getChildren();
+		for (int i = 0; i < task.getChildCount(); i++) {
+			TaskModel child = task.getChild(i);
+			if (i < children.size && ((ViewTask)children.get(i)).task == child) continue;
+			ViewTask childNode = getViewTask(child);
+			if (childNode != null) {
+				childNode.remove();
+			} else {
+				childNode = createNode(child);
+			}
+			node.insert(i, childNode);
+		}
+		for (int i = children.size - 1; i >= task.getChildCount(); i--) {
+			ViewTask childNode = (ViewTask)children.get(i);
+			node.remove(childNode);
+			// it could have been moved somewhere else, we will know once all nodes are updated
+			detached.add(childNode);
+		}
+	}
+
+	private ViewTask createNode (TaskModel task) {
+		ViewTask node = ViewTask.obtain(task, this);
+		for (int i = 0; i < task.getChildCount(); i++) {
+			TaskModel child = task.getChild(i);
+			ViewTask childNode = getViewTask(child);
+			if (childNode != null) {
+				childNode.remove();
+			} else {
+				childNode = createNode(child);
+			}
+			node.add(childNode);
+		}
+		// new nodes are expanded, same as after full rebuild
+		node.setExpanded(true);
+		return node;
+	}
+
+	private ViewTask getViewTask (TaskModel task) {
+		ViewTask node = taskToView.get(task);
+		if (node != null && node.task == task) return node;
+		return null;
+	}
+
+	private boolean isAttached (ViewTask node) {
+		// NOTE parent is not cleared when node is removed from it
+		Tree.Node parent = node.getParent();
+		if (parent != null) {
+			return parent.getChildren().contains(node, true);
+		}
+		return tree.getRootNodes().contains(node, true);
+	}
+
+	private void freeNode (ViewTask node) {
+		if (tree.getSelection().contains(node)) {
+			tree.getSelection().remove(node);
+		}
+		ViewTask.free(node);
+	}
+
+	private void updateNameColors (ViewTask node) {
+		node.updateNameColor();
+		Array children = node.getChildren();
+		for (int i = 0; i < children.size; i++) {
+			updateNameColors((ViewTask)children.get(i));
+		}
+	}
+
 	private Array<TaggedTask> taggedTasks = new Array<>();
+	// tasks added in current batch
+	private Array<TaggedTask> newTasks = new Array<>();
 	private ObjectMap<String, TaggedRoot> tagToNode = new ObjectMap<>();
 	public void addSrcTask (String tag, Class<? extends Task> cls, boolean visible) {
-		TaggedTask taggedTask = TaggedTask.obtain(tag, cls, this, visible);
-		taggedTasks.add(taggedTask);
-		taggedTasks.sort();
+		newTasks.add(TaggedTask.obtain(tag, cls, this, visible));
+		addNewSrcTasks();
+	}
+
+	/**
+	 * Add many task classes with same tag, drawer is updated once
+	 */
+	public void addSrcTasks (String tag, Iterable<? extends Class<? extends Task>> classes, boolean visible) {
+		obtainSrcTasks(tag, classes, visible);
+		addNewSrcTasks();
+	}
+
+	/**
+	 * Add many task classes, drawer is updated once
+	 * @param tagToClasses task classes by their tag
+	 */
+	public void addSrcTasks (ObjectMap<String, ? extends Iterable<? extends Class<? extends Task>>> tagToClasses, boolean visible) {
+		for (ObjectMap.Entry<String, ? extends Iterable<? extends Class<? extends Task>>> entry : tagToClasses.entries()) {
+			obtainSrcTasks(entry.key, entry.value, visible);
+		}
+		addNewSrcTasks();
+	}
+
+	private void obtainSrcTasks (String tag, Iterable<? extends Class<? extends Task>> classes, boolean visible) {
+		for (Class<? extends Task> cls : classes) {
+			newTasks.add(TaggedTask.obtain(tag, cls, this, visible));
+		}
+	}
 
+	private void addNewSrcTasks () {
+		// new tasks are sorted by tag and name, they are added after tasks already in the drawer
+		newTasks.sort();
 		// TODO ability to toggle visibility of each node, so it is easier to reduce clutter by hiding rarely used tasks
-		for (TaggedTask task : taggedTasks) {
-			TaggedRoot categoryNode = tagToNode.get(task.tag, null);
-			if (categoryNode == null) {
-				// TODO do we want a custom class for those?
-				categoryNode = TaggedRoot.obtain(task.tag, this);
-				tagToNode.put(tag, categoryNode);
-				taskDrawer.add(categoryNode);
-			}
-			if (!categoryNode.has(task)){
-				categoryNode.add(task);
+		TaggedRoot categoryNode = null;
+		for (int i = 0; i < newTasks.size; i++) {
+			TaggedTask task = newTasks.get(i);
+			// tasks with same tag are next to each other
+			if (categoryNode == null || !categoryNode.tag.equals(task.tag)) {
+				categoryNode = tagToNode.get(task.tag, null);
+				boolean created = categoryNode == null;
+				if (created) {
+					// TODO do we want a custom class for those?
+					categoryNode = TaggedRoot.obtain(task.tag, this);
+					tagToNode.put(task.tag, categoryNode);
+				}
+				// children of collapsed node are not in the tree, so adding many is cheap, expandAll() adds them in one go
+				if (created || (i + 1 < newTasks.size && newTasks.get(i + 1).tag.equals(task.tag))) {
+					categoryNode.setExpanded(false);
+				}
+				if (created) {
+					taskDrawer.add(categoryNode);
+				}
 			}
+			categoryNode.add(task);
 		}
+		taggedTasks.addAll(newTasks);
+		newTasks.clear();
 		taskDrawer.expandAll();
 	}
 
 	@Override public void onChange (BehaviorTreeModel model) {
-		rebuildTree();
+		Array<ModelChange> changes = model.getChanges();
+		if (virtualized) {
+			virtualTree.update(model.isInitialized() ? model.getRoot() : null, changes);
+		} else if (changes.size == 0 || tree.getRootNodes().size == 0) {
+			// we dont know what changed if there are no changes
+			rebuildTree();
+		} else {
+			updateTree(changes);
+		}
 		if (model.isValid()) {
 			btToggle.setDisabled(false);
 			btStep.setDisabled(false);
@@ -363,7 +638,11 @@ public class BehaviorTreeView extends Table implements BehaviorTreeModel.ModelCh
 	}
 
 	@Override public void onReset (BehaviorTreeModel model) {
+		vtEdit.stopEdit();
 		clearTree();
+		if (virtualized) {
+			virtualTree.reset();
+		}
 		saveBtn.setDisabled(true);
 		saveAsBtn.setDisabled(true);
 		loadBtn.setDisabled(true);
@@ -0,0 +1,128 @@
+package io.piotrjastrzebski.bte.view;
+
+import com.badlogic.gdx.ai.btree.Task;
+import com.badlogic.gdx.graphics.Color;
+import com.badlogic.gdx.math.Interpolation;
+import com.badlogic.gdx.scenes.scene2d.ui.Label;
+import com.badlogic.gdx.utils.Array;
+
+/**
+ * Applies status changes of tasks to status labels once per frame
+ *
+ * Tasks can change status many times during a single step, only last status of each label is applied
+ * Status text is pre-baked, fade to gray is driven by time of the change, so there is no garbage per step
+ */
+class StatusUpdater {
+	public static final float FADE_DURATION = 1.5f;
+	private static final String[] names;
+	static {
+		Task.Status[] statuses = Task.Status.values();
+		names = new String[statuses.length];
+		for (int i = 0; i < statuses.length; i++) {
+			names[i] = statuses[i].toString();
+		}
+	}
+
+	// unordered, so we can remove stuff while iterating backwards
+	private final Array<StatusLabel> pending = new Array<>(false, 64);
+	private final Array<StatusLabel> fading = new Array<>(false, 64);
+	private float time;
+
+	/**
+	 * @return pre-baked text for given status
+	 */
+	public static String getText (Task.Status status) {
+		return names[status.ordinal()];
+	}
+
+	/**
+	 * Queue status change, it will be applied on next update
+	 */
+	public void statusChanged (StatusLabel label, Task.Status status) {
+		label.pending = status;
+		if (!label.queued) {
+			label.queued = true;
+			pending.add(label);
+		}
+	}
+
+	/**
+	 * Apply pending status changes and update fading labels, call this once per frame
+	 */
+	public void update (float delta) {
+		time += delta;
+		for (int i = 0; i < pending.size; i++) {
+			StatusLabel label = pending.get(i);
+			label.queued = false;
+			if (label.pending != null) {
+				apply(label, label.pending);
+				label.pending = null;
+			}
+		}
+		pending.clear();
+		for (int i = fading.size - 1; i >= 0; i--) {
+			StatusLabel label = fading.get(i);
+			float progress = label.fade ? (time - label.changedAt) / FADE_DURATION : 1;
+			if (progress >= 1) {
+				if (label.fade) {
+					label.label.setColor(Color.GRAY);
+					label.fade = false;
+				}
+				label.inFading = false;
+				fading.removeIndex(i);
+			} else {
+				label.label.getColor().set(label.color).lerp(Color.GRAY, Interpolation.pow3In.apply(progress));
+			}
+		}
+	}
+
+	private void apply (StatusLabel label, Task.Status status) {
+		label.label.setText(getText(status));
+		label.color = ViewColors.getColor(status);
+		label.label.setColor(label.color);
+		label.changedAt = time;
+		label.fade = true;
+		if (!label.inFading) {
+			label.inFading = true;
+			fading.add(label);
+		}
+	}
+
+	/**
+	 * Status label of a single task, owned by a view of the task
+	 */
+	static class StatusLabel {
+		protected final Label label;
+		protected Task.Status pending;
+		protected Color color;
+		protected float changedAt;
+		protected boolean fade;
+		// if label is in updater arrays, it is removed from them lazily on next update
+		protected boolean queued;
+		protected boolean inFading;
+
+		public StatusLabel (Label label) {
+			this.label = label;
+		}
+
+		/**
+		 * Set status immediately, without fade, pending change is dropped
+		 * @param status new status or null to clear the label
+		 * @param color color of the label
+		 */
+		public void set (Task.Status status, Color color) {
+			pending = null;
+			fade = false;
+			label.setText(status != null ? getText(status) : "");
+			label.setColor(color);
+		}
+
+		/**
+		 * Drop pending change and stop fading, call this when label is not used for a task anymore
+		 */
+		public void clear () {
+			pending = null;
+			fade = false;
+		}
+	}
+}
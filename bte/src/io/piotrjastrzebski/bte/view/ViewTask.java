@@ -1,14 +1,9 @@
 package io.piotrjastrzebski.bte.view;
 
-import com.badlogic.gdx.Gdx;
-import com.badlogic.gdx.Input;
 import com.badlogic.gdx.ai.btree.Task;
 import com.badlogic.gdx.graphics.Color;
-import com.badlogic.gdx.math.Interpolation;
-import com.badlogic.gdx.scenes.scene2d.Actor;
 import com.badlogic.gdx.scenes.scene2d.InputEvent;
 import com.badlogic.gdx.scenes.scene2d.Touchable;
-import com.badlogic.gdx.scenes.scene2d.actions.Actions;
 import com.badlogic.gdx.scenes.scene2d.ui.Tree;
 import com.badlogic.gdx.scenes.scene2d.utils.DragAndDrop;
 import com.badlogic.gdx.utils.Pool;
@@ -45,13 +40,14 @@ class ViewTask extends Tree.Node implements Pool.Poolable, TaskModel.ChangeListe
 	protected static final float DROP_MARGIN = 0.25f;
 
 	protected DragAndDrop dad;
+	protected BehaviorTreeView view;
 	protected BehaviorTreeModel model;
 	protected TaskModel task;
 	protected VisTable container;
 	protected VisLabel prefix;
 	protected VisLabel label;
 	protected VisLabel status;
-	protected ViewTarget target;
+	protected StatusUpdater.StatusLabel statusLabel;
 	protected ViewSource source;
 	protected VisImage separator;
 
@@ -70,80 +66,12 @@ class ViewTask extends Tree.Node implements Pool.Poolable, TaskModel.ChangeListe
 		container.add(label);
 		status = new VisLabel("");
 		status.setColor(ViewColors.FRESH);
+		statusLabel = new StatusUpdater.StatusLabel(status);
 		container.add(status).padLeft(5);
 		container.setTouchable(Touchable.enabled);
 
 		setValue(this);
-		target = new ViewTarget(container) {
-			boolean copy = false;
-
-			@Override public boolean onDrag (ViewSource source, ViewPayload payload, float x, float y) {
-				copy = Gdx.input.isKeyPressed(Input.Keys.CONTROL_LEFT) || Gdx.input.isKeyPressed(Input.Keys.CONTROL_RIGHT);
-				Actor actor = getActor();
-				DropPoint dropPoint = getDropPoint(actor, y);
-				boolean isValid = !task.isReadOnly() && payload.task != task;
-				if (isValid) {
-					switch (dropPoint) {
-					case ABOVE:
-						if (!copy && payload.getType() == ViewPayload.Type.MOVE) {
-							isValid = model.canMoveBefore(payload.task, task);
-						} else {
-							isValid = model.canAddBefore(payload.task, task);
-						}
-						break;
-					case MIDDLE:
-						if (!copy && payload.getType() == ViewPayload.Type.MOVE) {
-							isValid = model.canMove(payload.task, task);
-						} else {
-							isValid = model.canAdd(payload.task, task);
-						}
-						break;
-					case BELOW:
-						if (!copy && payload.getType() == ViewPayload.Type.MOVE) {
-							isValid = model.canMoveAfter(payload.task, task);
-						} else {
-							isValid = model.canAddAfter(payload.task, task);
-						}
-						break;
-					default:
-						isValid = false;
-					}
-				}
-				updateSeparator(dropPoint, isValid);
-				return isValid;
-			}
-
-			@Override public void onDrop (ViewSource source, ViewPayload payload, float x, float y) {
-				DropPoint dropPoint = getDropPoint(getActor(), y);
-				switch (dropPoint) {
-				case ABOVE:
-					if (!copy && payload.getType() == ViewPayload.Type.MOVE) {
-						model.moveBefore(payload.task, task);
-					} else {
-						model.addBefore(copy ? payload.task.copy() : payload.task, task);
-					}
-					break;
-				case MIDDLE:
-					if (!copy && payload.getType() == ViewPayload.Type.MOVE) {
-						model.move(payload.task, task);
-					} else {
-						model.add(copy ? payload.task.copy() : payload.task, task);
-					}
-					break;
-				case BELOW:
-					if (!copy && payload.getType() == ViewPayload.Type.MOVE) {
-						model.moveAfter(payload.task, task);
-					} else {
-						model.addAfter(copy ? payload.task.copy() : payload.task, task);
-					}
-					break;
-				}
-			}
-
-			@Override public void reset (DragAndDrop.Source source, DragAndDrop.Payload payload) {
-				resetSeparator();
-			}
-		};
+		// drop target is shared by all nodes, see ViewTreeTarget
 		source = new ViewSource(label) {
 			@Override public DragAndDrop.Payload dragStart (InputEvent event, float x, float y, int pointer) {
 				isMoving = true;
@@ -164,6 +92,7 @@ class ViewTask extends Tree.Node implements Pool.Poolable, TaskModel.ChangeListe
 	private ViewTask init (TaskModel task, BehaviorTreeView view) {
 		// TODO add * after root/include when tree/subtree is not saved
 		this.task = task;
+		this.view = view;
 		this.dad = view.dad;
 		this.model = view.model;
 		separator.setDrawable(view.dimImg);
@@ -176,37 +105,39 @@ class ViewTask extends Tree.Node implements Pool.Poolable, TaskModel.ChangeListe
 		}
 		if (task.getType() != TaskModel.Type.GUARD) {
 			task.addListener(this);
-			status.setText("FRESH");
+			statusLabel.set(Task.Status.FRESH, ViewColors.FRESH);
 		}
 		updateNameColor();
-		dad.addTarget(target);
+		view.taskToView.put(task, this);
 		return this;
 	}
 
-	private void updateNameColor () {
+	void updateNameColor () {
 		// NOTE it is possible that the task is freed before this is called from target callback
 		// this can happen when we drop stuff back to drawer, it gets removed, tree is updated but the callbad didnt yet fire
 		if (task == null)
 			return;
+		label.setColor(getNameColor(task, isMoving, isMarkedAsGuarded || task.isGuarded()));
+		prefix.setColor(label.getColor());
+	}
+
+	static Color getNameColor (TaskModel task, boolean isMoving, boolean isMarkedAsGuarded) {
 		if (task.isReadOnly()) {
-			label.setColor(Color.GRAY);
+			return Color.GRAY;
 		} else if (task.isValid()) {
 			if (isMoving) {
-				label.setColor(Color.CYAN);
+				return Color.CYAN;
 			} else if (task.isGuard()) {
-				label.setColor(ViewColors.GUARD);
+				return ViewColors.GUARD;
 			} else if (isMarkedAsGuarded) {
-				label.setColor(ViewColors.GUARDED);
-			} else {
-				label.setColor(Color.WHITE);
+				return ViewColors.GUARDED;
 			}
-		} else {
-			label.setColor(ViewColors.INVALID);
+			return Color.WHITE;
 		}
-		prefix.setColor(label.getColor());
+		return ViewColors.INVALID;
 	}
 
-	private void updateSeparator (DropPoint dropPoint, boolean isValid) {
+	void updateSeparator (DropPoint dropPoint, boolean isValid) {
 		resetSeparator();
 		Color color = isValid ? ViewColors.VALID : ViewColors.INVALID;
 		separator.setColor(color);
@@ -227,29 +158,31 @@ class ViewTask extends Tree.Node implements Pool.Poolable, TaskModel.ChangeListe
 		}
 	}
 
-	private void resetSeparator () {
+	void resetSeparator () {
 		separator.setVisible(false);
 		updateNameColor();
 	}
 
 	@Override public void statusChanged (Task.Status from, Task.Status to) {
-		status.setText(to.toString());
-		status.setColor(ViewColors.getColor(to));
-		status.clearActions();
-		status.addAction(Actions.color(Color.GRAY, 1.5f, Interpolation.pow3In));
+		// this can be called many times per step, label is updated once per frame
+		view.statusUpdater.statusChanged(statusLabel, to);
 	}
 
 	@Override public void reset () {
-		if (task != null)
+		if (task != null) {
 			task.removeListener(this);
+			// task could have been freed and used by another view task already
+			if (view.taskToView.get(task) == this) {
+				view.taskToView.remove(task);
+			}
+		}
 		task = null;
+		view = null;
 		label.setText("<INVALID>");
+		statusLabel.clear();
 		status.setText("");
-		if (dad != null) {
-			if (sourceAdded) {
-				dad.removeSource(source);
-			}
-			dad.removeTarget(target);
+		if (dad != null && sourceAdded) {
+			dad.removeSource(source);
 		}
 		sourceAdded = false;
 		separator.setVisible(false);
@@ -260,8 +193,57 @@ class ViewTask extends Tree.Node implements Pool.Poolable, TaskModel.ChangeListe
 		getChildren().clear();
 	}
 
-	private static DropPoint getDropPoint (Actor actor, float y) {
-		float a = y / actor.getHeight();
+	/**
+	 * @param copy if payload should be copied instead of moved
+	 * @return if payload can be dropped at drop point of target
+	 */
+	static boolean canDrop (BehaviorTreeModel model, ViewPayload payload, TaskModel target, DropPoint dropPoint, boolean copy) {
+		if (target.isReadOnly() || payload.task == target) return false;
+		boolean move = !copy && payload.getType() == ViewPayload.Type.MOVE;
+		switch (dropPoint) {
+		case ABOVE:
+			return move ? model.canMoveBefore(payload.task, target) : model.canAddBefore(payload.task, target);
+		case MIDDLE:
+			return move ? model.canMove(payload.task, target) : model.canAdd(payload.task, target);
+		case BELOW:
+			return move ? model.canMoveAfter(payload.task, target) : model.canAddAfter(payload.task, target);
+		}
+		return false;
+	}
+
+	/**
+	 * Drop payload at drop point of target
+	 * @param copy if payload should be copied instead of moved
+	 */
+	static void drop (BehaviorTreeModel model, ViewPayload payload, TaskModel target, DropPoint dropPoint, boolean copy) {
+		boolean move = !copy && payload.getType() == ViewPayload.Type.MOVE;
+		switch (dropPoint) {
+		case ABOVE:
+			if (move) {
+				model.moveBefore(payload.task, target);
+			} else {
+				model.addBefore(copy ? payload.task.copy() : payload.task, target);
+			}
+			break;
+		case MIDDLE:
+			if (move) {
+				model.move(payload.task, target);
+			} else {
+				model.add(copy ? payload.task.copy() : payload.task, target);
+			}
+			break;
+		case BELOW:
+			if (move) {
+				model.moveAfter(payload.task, target);
+			} else {
+				model.addAfter(copy ? payload.task.copy() : payload.task, target);
+			}
+			break;
+		}
+	}
+
+	static DropPoint getDropPoint (float height, float y) {
+		float a = y / height;
 		if (a < DROP_MARGIN) {
 			return DropPoint.BELOW;
 		} else if (a > 1 - DROP_MARGIN) {
@@ -0,0 +1,138 @@
+package io.piotrjastrzebski.bte.view;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.Input;
+import com.badlogic.gdx.scenes.scene2d.ui.Tree;
+import com.badlogic.gdx.scenes.scene2d.utils.DragAndDrop;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.FloatArray;
+
+/**
+ * Single drop target for the whole tree, instead of a target per node
+ *
+ * Visible rows are collected after each layout of the tree, row under the pointer is found with a binary search
+ * so cost of a drag doesn't depend on the number of nodes
+ */
+@SuppressWarnings("rawtypes")
+class ViewTreeTarget extends ViewTarget {
+	private final BehaviorTreeView view;
+	private final Tree tree;
+	// nodes in expanded parents, top to bottom
+	private final Array<ViewTask> rows = new Array<>();
+	// bottom of each row in tree coordinates, descending, row includes spacing below the node like in Tree#getNodeAt(float)
+	private final FloatArray rowYs = new FloatArray();
+	private final FloatArray rowHeights = new FloatArray();
+	private boolean rowsDirty = true;
+	private ViewTask dropNode;
+	private ViewTask.DropPoint dropPoint;
+	private boolean dropValid;
+	private boolean copy;
+
+	public ViewTreeTarget (BehaviorTreeView view, Tree tree) {
+		super(tree);
+		this.view = view;
+		this.tree = tree;
+	}
+
+	/**
+	 * Rows are collected again on next drag, call this after the tree was laid out
+	 */
+	public void invalidateRows () {
+		rowsDirty = true;
+	}
+
+	private void updateRows () {
+		// nodes must be in place, this does nothing if they are
+		tree.validate();
+		if (!rowsDirty) return;
+		rowsDirty = false;
+		rows.clear();
+		rowYs.clear();
+		rowHeights.clear();
+		// same as Tree#getNodeAt(float)
+		addRows(tree.getRootNodes(), tree.getHeight());
+	}
+
+	private float addRows (Array nodes, float top) {
+		float spacing = tree.getYSpacing();
+		for (int i = 0; i < nodes.size; i++) {
+			ViewTask node = (ViewTask)nodes.get(i);
+			float height = node.getHeight() + spacing;
+			top -= height;
+			rows.add(node);
+			rowYs.add(top);
+			rowHeights.add(height);
+			if (node.isExpanded()) {
+				top = addRows(node.getChildren(), top);
+			}
+		}
+		return top;
+	}
+
+	/**
+	 * @return index of row at given y in tree coordinates or -1 if there is none
+	 */
+	private int getRowAt (float y) {
+		int low = 0;
+		int high = rows.size - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			float bottom = rowYs.get(mid);
+			if (y < bottom) {
+				low = mid + 1;
+			} else if (y >= bottom + rowHeights.get(mid)) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	@Override public boolean onDrag (ViewSource source, ViewPayload payload, float x, float y) {
+		copy = Gdx.input.isKeyPressed(Input.Keys.CONTROL_LEFT) || Gdx.input.isKeyPressed(Input.Keys.CONTROL_RIGHT);
+		updateRows();
+		int index = getRowAt(y);
+		ViewTask node = index >= 0 ? rows.get(index) : null;
+		if (node != dropNode && dropNode != null) {
+			dropNode.resetSeparator();
+		}
+		dropNode = node;
+		if (node == null || node.task == null) {
+			dropValid = false;
+			return false;
+		}
+		// spacing below the node counts as below it
+		float spacing = tree.getYSpacing();
+		dropPoint = ViewTask.getDropPoint(rowHeights.get(index) - spacing, y - rowYs.get(index) - spacing);
+		dropValid = ViewTask.canDrop(view.model, payload, node.task, dropPoint, copy);
+		node.updateSeparator(dropPoint, dropValid);
+		return dropValid;
+	}
+
+	@Override public void onDrop (ViewSource source, ViewPayload payload, float x, float y) {
+		ViewTask node = dropNode;
+		if (node == null) return;
+		// node could be freed when tree is updated after the drop
+		dropNode = null;
+		node.resetSeparator();
+		if (node.task != null && dropValid) {
+			ViewTask.drop(view.model, payload, node.task, dropPoint, copy);
+		}
+	}
+
+	@Override public void reset (DragAndDrop.Source source, DragAndDrop.Payload payload) {
+		if (dropNode != null) {
+			dropNode.resetSeparator();
+			dropNode = null;
+		}
+	}
+
+	/**
+	 * @return number of rows in expanded parents
+	 */
+	public int getRowCount () {
+		updateRows();
+		return rows.size;
+	}
+}
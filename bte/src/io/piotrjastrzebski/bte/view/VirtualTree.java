@@ -0,0 +1,561 @@
+package io.piotrjastrzebski.bte.view;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.Input;
+import com.badlogic.gdx.ai.btree.Task;
+import com.badlogic.gdx.graphics.Color;
+import com.badlogic.gdx.graphics.g2d.Batch;
+import com.badlogic.gdx.graphics.g2d.BitmapFont;
+import com.badlogic.gdx.graphics.g2d.GlyphLayout;
+import com.badlogic.gdx.math.Rectangle;
+import com.badlogic.gdx.scenes.scene2d.Actor;
+import com.badlogic.gdx.scenes.scene2d.InputEvent;
+import com.badlogic.gdx.scenes.scene2d.Touchable;
+import com.badlogic.gdx.scenes.scene2d.ui.Label;
+import com.badlogic.gdx.scenes.scene2d.ui.Tree;
+import com.badlogic.gdx.scenes.scene2d.ui.WidgetGroup;
+import com.badlogic.gdx.scenes.scene2d.utils.ClickListener;
+import com.badlogic.gdx.scenes.scene2d.utils.Cullable;
+import com.badlogic.gdx.scenes.scene2d.utils.DragAndDrop;
+import com.badlogic.gdx.scenes.scene2d.utils.Drawable;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.IntArray;
+import com.badlogic.gdx.utils.ObjectFloatMap;
+import com.badlogic.gdx.utils.ObjectSet;
+import com.badlogic.gdx.utils.Pool;
+import com.kotcrab.vis.ui.VisUI;
+import com.kotcrab.vis.ui.widget.VisLabel;
+import com.kotcrab.vis.ui.widget.VisTable;
+import io.piotrjastrzebski.bte.model.ModelChange;
+import io.piotrjastrzebski.bte.model.tasks.TaskModel;
+
+/**
+ * Tree of model tasks that creates actors only for rows in its culling area
+ *
+ * Rows have fixed height and are laid out by index, row actors are pooled and bound to other tasks while scrolling
+ * so memory use and frame time depend on size of the viewport, not on size of the tree
+ * There is a single drag and drop source and target for the whole widget
+ * Model changes only replace rows of parents that were changed, rest of the rows is left as is
+ */
+class VirtualTree extends WidgetGroup implements Cullable {
+	private static final String TAG = VirtualTree.class.getSimpleName();
+
+	private final BehaviorTreeView view;
+	private final Tree.TreeStyle style;
+	private final BitmapFont font;
+	private final GlyphLayout glyphLayout = new GlyphLayout();
+	// tasks of rows, tasks in collapsed tasks are skipped
+	private final Array<TaskModel> rows = new Array<>();
+	private final IntArray depths = new IntArray();
+	// rows after patched parent, they are added back after its new children
+	private final Array<TaskModel> tailRows = new Array<>();
+	private final IntArray tailDepths = new IntArray();
+	private final ObjectSet<TaskModel> collapsed = new ObjectSet<>();
+	private final Array<Row> bound = new Array<>();
+	private final Pool<Row> rowPool = new Pool<Row>() {
+		@Override protected Row newObject () {
+			return new Row();
+		}
+	};
+	private final ObjectFloatMap<String> nameWidths = new ObjectFloatMap<>();
+	private final float rowHeight;
+	private final float indent;
+	private final float statusWidth;
+	private final ViewSource source;
+	private final ViewTarget target;
+	private Rectangle cullingArea;
+	private int first;
+	private int last = -1;
+	private boolean rebind;
+	private float prefWidth;
+	private boolean prefWidthDirty;
+	private TaskModel root;
+	private TaskModel selected;
+	private TaskModel over;
+	private TaskModel moving;
+	private TaskModel dropTask;
+	private ViewTask.DropPoint dropPoint;
+	private boolean dropValid;
+
+	public VirtualTree (BehaviorTreeView view) {
+		this.view = view;
+		style = VisUI.getSkin().get(Tree.TreeStyle.class);
+		Label.LabelStyle labelStyle = VisUI.getSkin().get(Label.LabelStyle.class);
+		font = labelStyle.font;
+		setTransform(false);
+		setTouchable(Touchable.enabled);
+		float iconWidth = Math.max(style.plus.getMinWidth(), style.minus.getMinWidth());
+		float iconHeight = Math.max(style.plus.getMinHeight(), style.minus.getMinHeight());
+		indent = iconWidth + 4;
+		rowHeight = Math.max(font.getLineHeight(), iconHeight) + 2;
+		glyphLayout.setText(font, Task.Status.SUCCEEDED.toString());
+		statusWidth = glyphLayout.width + 5;
+
+		addListener(new ClickListener() {
+			@Override public void clicked (InputEvent event, float x, float y) {
+				int index = getRowAt(y);
+				if (index < 0) return;
+				TaskModel task = rows.get(index);
+				float iconX = depths.get(index) * indent;
+				if (task.getChildCount() > 0 && x >= iconX && x < iconX + indent) {
+					setExpanded(task, collapsed.contains(task));
+				} else {
+					selected = task;
+					VirtualTree.this.view.onTaskSelected(task);
+				}
+			}
+
+			@Override public boolean mouseMoved (InputEvent event, float x, float y) {
+				int index = getRowAt(y);
+				over = index >= 0 ? rows.get(index) : null;
+				return false;
+			}
+
+			@Override public void exit (InputEvent event, float x, float y, int pointer, Actor toActor) {
+				super.exit(event, x, y, pointer, toActor);
+				if (toActor == null || !toActor.isDescendantOf(VirtualTree.this)) {
+					over = null;
+				}
+			}
+		});
+
+		source = new ViewSource(this) {
+			@Override public DragAndDrop.Payload dragStart (InputEvent event, float x, float y, int pointer) {
+				int index = getRowAt(y);
+				if (index < 0) return null;
+				TaskModel task = rows.get(index);
+				if (task.getType() == TaskModel.Type.ROOT || task.isReadOnly()) return null;
+				setMoving(task);
+				return ViewPayload.obtain(task.getName(), task).asMove();
+			}
+
+			@Override public void dragStop (InputEvent event, float x, float y, int pointer, DragAndDrop.Payload payload,
+				DragAndDrop.Target target) {
+				setMoving(null);
+				ViewPayload.free((ViewPayload)payload);
+			}
+		};
+
+		target = new ViewTarget(this) {
+			boolean copy = false;
+
+			@Override public boolean onDrag (ViewSource source, ViewPayload payload, float x, float y) {
+				copy = Gdx.input.isKeyPressed(Input.Keys.CONTROL_LEFT) || Gdx.input.isKeyPressed(Input.Keys.CONTROL_RIGHT);
+				int index = getRowAt(y);
+				if (index < 0) {
+					dropTask = null;
+					return false;
+				}
+				dropTask = rows.get(index);
+				dropPoint = ViewTask.getDropPoint(rowHeight, y - getRowY(index));
+				dropValid = ViewTask.canDrop(VirtualTree.this.view.model, payload, dropTask, dropPoint, copy);
+				return dropValid;
+			}
+
+			@Override public void onDrop (ViewSource source, ViewPayload payload, float x, float y) {
+				if (dropTask != null && dropValid) {
+					TaskModel task = dropTask;
+					dropTask = null;
+					ViewTask.drop(VirtualTree.this.view.model, payload, task, dropPoint, copy);
+				}
+			}
+
+			@Override public void reset (DragAndDrop.Source source, DragAndDrop.Payload payload) {
+				dropTask = null;
+			}
+		};
+	}
+
+	/**
+	 * Add drag and drop source and target of this tree
+	 */
+	public void register () {
+		view.dad.addSource(source);
+		view.dad.addTarget(target);
+	}
+
+	public void unregister () {
+		view.dad.removeSource(source);
+		view.dad.removeTarget(target);
+	}
+
+	/**
+	 * Update rows from given root, call this after tasks were changed
+	 * This doesn't create any actors, only rows in culling area are bound on next layout
+	 * @param root root of the tree or null to clear it
+	 */
+	public void rebuild (TaskModel root) {
+		this.root = root;
+		rows.clear();
+		depths.clear();
+		prefWidth = 0;
+		prefWidthDirty = false;
+		if (root != null) {
+			addRows(root, 0);
+		}
+		rowsChanged();
+	}
+
+	/**
+	 * Update rows of parents affected by given changes, rows of other tasks are kept
+	 * @param root root of the tree or null to clear it
+	 * @param changes changes since last update, rows are rebuilt if there are none
+	 */
+	public void update (TaskModel root, Array<ModelChange> changes) {
+		if (root == null || root != this.root || changes.size == 0) {
+			rebuild(root);
+			return;
+		}
+		for (int i = 0; i < changes.size; i++) {
+			ModelChange change = changes.get(i);
+			if (change.getType() == ModelChange.Type.ATTRIBUTE) {
+				// children of includes are recreated
+				if (change.getTask().getType() == TaskModel.Type.INCLUDE) {
+					patch(change.getTask());
+				}
+				continue;
+			}
+			patch(change.getParent());
+			if (change.getOldParent() != null) {
+				patch(change.getOldParent());
+			}
+		}
+		rowsChanged();
+	}
+
+	/**
+	 * Replace rows of children of given task with rows of its current children
+	 * If more parents are changed, tasks could be moved from one not patched yet, so rows can be in a wrong place
+	 * until all of them are patched
+	 */
+	private void patch (TaskModel task) {
+		if (task == null || !isVisible(task)) return;
+		int index = rows.indexOf(task, true);
+		if (index < 0) return;
+		int depth = depths.get(index);
+		int end = index + 1;
+		while (end < rows.size && depths.get(end) > depth) {
+			if (getRowWidth(rows.get(end), depths.get(end)) >= prefWidth) {
+				prefWidthDirty = true;
+			}
+			end++;
+		}
+		tailRows.addAll(rows, end, rows.size - end);
+		tailDepths.addAll(depths, end, depths.size - end);
+		rows.truncate(index + 1);
+		depths.truncate(index + 1);
+		if (!collapsed.contains(task)) {
+			for (int i = 0; i < task.getChildCount(); i++) {
+				addRows(task.getChild(i), depth + 1);
+			}
+		}
+		rows.addAll(tailRows);
+		depths.addAll(tailDepths);
+		tailRows.clear();
+		tailDepths.clear();
+	}
+
+	private void rowsChanged () {
+		// forget about tasks that are not in the tree anymore
+		ObjectSet.ObjectSetIterator<TaskModel> it = collapsed.iterator();
+		while (it.hasNext) {
+			if (!isInTree(it.next())) it.remove();
+		}
+		if (selected != null && !isInTree(selected)) {
+			// task could be freed already, it can't be edited anymore
+			selected = null;
+			view.onTaskDeselected();
+		}
+		over = null;
+		dropTask = null;
+		rebind = true;
+		invalidateHierarchy();
+	}
+
+	private void addRows (TaskModel task, int depth) {
+		rows.add(task);
+		depths.add(depth);
+		prefWidth = Math.max(prefWidth, getRowWidth(task, depth));
+		if (collapsed.contains(task)) return;
+		for (int i = 0; i < task.getChildCount(); i++) {
+			addRows(task.getChild(i), depth + 1);
+		}
+	}
+
+	private float getRowWidth (TaskModel task, int depth) {
+		return (depth + 1) * indent + getNameWidth(task.getName()) + statusWidth;
+	}
+
+	private float getNameWidth (String name) {
+		float width = nameWidths.get(name, -1);
+		if (width < 0) {
+			glyphLayout.setText(font, name);
+			width = glyphLayout.width;
+			nameWidths.put(name, width);
+		}
+		return width;
+	}
+
+	private boolean isInTree (TaskModel task) {
+		while (task != null) {
+			if (task == root) return true;
+			task = task.getParent();
+		}
+		return false;
+	}
+
+	/**
+	 * @return if task is in the tree and none of its parents is collapsed, so it has a row
+	 */
+	private boolean isVisible (TaskModel task) {
+		if (task == root) return true;
+		TaskModel parent = task.getParent();
+		while (parent != null) {
+			if (collapsed.contains(parent)) return false;
+			if (parent == root) return true;
+			parent = parent.getParent();
+		}
+		return false;
+	}
+
+	/**
+	 * Remove all rows and forget expanded state
+	 */
+	public void reset () {
+		collapsed.clear();
+		if (selected != null) {
+			selected = null;
+			view.onTaskDeselected();
+		}
+		rebuild(null);
+		freeRows();
+	}
+
+	public void setExpanded (TaskModel task, boolean expanded) {
+		if (expanded) {
+			collapsed.remove(task);
+		} else {
+			collapsed.add(task);
+		}
+		patch(task);
+		rowsChanged();
+	}
+
+	public boolean isExpanded (TaskModel task) {
+		return !collapsed.contains(task);
+	}
+
+	private void setMoving (TaskModel task) {
+		moving = task;
+		for (int i = 0; i < bound.size; i++) {
+			bound.get(i).updateNameColor();
+		}
+	}
+
+	/**
+	 * @return index of row at given y in local coordinates or -1 if there is none
+	 */
+	private int getRowAt (float y) {
+		if (y < 0 || y > getHeight()) return -1;
+		int index = (int)((getHeight() - y) / rowHeight);
+		if (index < 0 || index >= rows.size) return -1;
+		return index;
+	}
+
+	private float getRowY (int index) {
+		return getHeight() - (index + 1) * rowHeight;
+	}
+
+	@Override public void setCullingArea (Rectangle cullingArea) {
+		this.cullingArea = cullingArea;
+		// this is called by scroll pane each frame, we only care if visible rows changed
+		if (updateRows()) {
+			positionRows();
+		}
+	}
+
+	@Override public void layout () {
+		updateRows();
+		positionRows();
+	}
+
+	/**
+	 * Bind rows in culling area, free rows that left it
+	 * @return if bound rows changed
+	 */
+	private boolean updateRows () {
+		int newFirst = 0;
+		int newLast = rows.size - 1;
+		if (cullingArea != null) {
+			float height = getHeight();
+			newFirst = Math.max(0, (int)((height - cullingArea.y - cullingArea.height) / rowHeight));
+			newLast = Math.min(rows.size - 1, (int)((height - cullingArea.y) / rowHeight));
+		}
+		if (!rebind && newFirst == first && newLast == last) return false;
+		for (int i = bound.size - 1; i >= 0; i--) {
+			Row row = bound.get(i);
+			if (rebind || row.index < newFirst || row.index > newLast) {
+				bound.removeIndex(i);
+				row.remove();
+				rowPool.free(row);
+			}
+		}
+		for (int i = newFirst; i <= newLast; i++) {
+			// rows in old range are still bound, unless we rebind everything
+			if (!rebind && i >= first && i <= last) continue;
+			Row row = rowPool.obtain();
+			row.bind(rows.get(i), i);
+			addActor(row);
+			bound.add(row);
+		}
+		first = newFirst;
+		last = newLast;
+		rebind = false;
+		return true;
+	}
+
+	private void positionRows () {
+		for (int i = 0; i < bound.size; i++) {
+			Row row = bound.get(i);
+			row.setBounds((depths.get(row.index) + 1) * indent, getRowY(row.index), row.getPrefWidth(), rowHeight);
+		}
+	}
+
+	private void freeRows () {
+		for (int i = 0; i < bound.size; i++) {
+			Row row = bound.get(i);
+			row.remove();
+			rowPool.free(row);
+		}
+		bound.clear();
+		first = 0;
+		last = -1;
+	}
+
+	@Override public void draw (Batch batch, float parentAlpha) {
+		validate();
+		Color color = getColor();
+		float x = getX();
+		float y = getY();
+		float width = getWidth();
+		for (int i = 0; i < bound.size; i++) {
+			Row row = bound.get(i);
+			float rowY = y + row.getY();
+			batch.setColor(color.r, color.g, color.b, color.a * parentAlpha);
+			if (row.task == selected && style.selection != null) {
+				style.selection.draw(batch, x, rowY, width, rowHeight);
+			} else if (row.task == over && style.over != null) {
+				style.over.draw(batch, x, rowY, width, rowHeight);
+			}
+			if (row.task.getChildCount() > 0) {
+				Drawable icon = collapsed.contains(row.task) ? style.plus : style.minus;
+				float iconX = x + depths.get(row.index) * indent;
+				icon.draw(batch, iconX, rowY + (rowHeight - icon.getMinHeight()) / 2, icon.getMinWidth(), icon.getMinHeight());
+			}
+			if (row.task == dropTask) {
+				drawDropPoint(batch, x + row.getX(), rowY, row.getWidth(), parentAlpha);
+			}
+		}
+		batch.setColor(color.r, color.g, color.b, color.a * parentAlpha);
+		super.draw(batch, parentAlpha);
+	}
+
+	private void drawDropPoint (Batch batch, float x, float y, float width, float parentAlpha) {
+		Color dropColor = dropValid ? ViewColors.VALID : ViewColors.INVALID;
+		float height = rowHeight / 4;
+		switch (dropPoint) {
+		case ABOVE:
+			batch.setColor(dropColor.r, dropColor.g, dropColor.b, dropColor.a * parentAlpha);
+			view.dimImg.draw(batch, x, y + rowHeight - height / 2, width, height);
+			break;
+		case MIDDLE:
+			batch.setColor(dropColor.r, dropColor.g, dropColor.b, 0.25f * parentAlpha);
+			view.dimImg.draw(batch, x, y, width, rowHeight);
+			break;
+		case BELOW:
+			batch.setColor(dropColor.r, dropColor.g, dropColor.b, dropColor.a * parentAlpha);
+			view.dimImg.draw(batch, x, y - height / 2, width, height);
+			break;
+		}
+	}
+
+	@Override public float getPrefWidth () {
+		if (prefWidthDirty) {
+			// widest row was removed
+			prefWidthDirty = false;
+			prefWidth = 0;
+			for (int i = 0; i < rows.size; i++) {
+				prefWidth = Math.max(prefWidth, getRowWidth(rows.get(i), depths.get(i)));
+			}
+		}
+		return prefWidth;
+	}
+
+	@Override public float getPrefHeight () {
+		return rows.size * rowHeight;
+	}
+
+	/**
+	 * @return number of rows, not including rows in collapsed tasks
+	 */
+	public int getRowCount () {
+		return rows.size;
+	}
+
+	/**
+	 * @return number of rows that have actors
+	 */
+	public int getBoundRowCount () {
+		return bound.size;
+	}
+
+	private class Row extends VisTable implements TaskModel.ChangeListener, Pool.Poolable {
+		protected TaskModel task;
+		protected int index = -1;
+		protected final VisLabel label;
+		protected final VisLabel status;
+		protected final StatusUpdater.StatusLabel statusLabel;
+
+		public Row () {
+			label = new VisLabel();
+			add(label);
+			status = new VisLabel("");
+			statusLabel = new StatusUpdater.StatusLabel(status);
+			add(status).padLeft(5);
+			// input is handled by the tree
+			setTouchable(Touchable.disabled);
+		}
+
+		public void bind (TaskModel task, int index) {
+			this.task = task;
+			this.index = index;
+			label.setText(task.getName());
+			updateNameColor();
+			Task wrapped = task.getWrapped();
+			if (task.getType() != TaskModel.Type.GUARD && wrapped != null) {
+				task.addListener(this);
+				Task.Status current = wrapped.getStatus();
+				statusLabel.set(current, current == Task.Status.FRESH ? ViewColors.FRESH : Color.GRAY);
+			} else {
+				statusLabel.set(null, Color.GRAY);
+			}
+		}
+
+		public void updateNameColor () {
+			label.setColor(ViewTask.getNameColor(task, task == moving, task.isGuarded()));
+		}
+
+		@Override public void statusChanged (Task.Status from, Task.Status to) {
+			view.statusUpdater.statusChanged(statusLabel, to);
+		}
+
+		@Override public void reset () {
+			if (task != null) {
+				task.removeListener(this);
+			}
+			task = null;
+			index = -1;
+			statusLabel.clear();
+		}
+	}
+}
@@ -18,7 +18,9 @@ import com.kotcrab.vis.ui.widget.VisLabel;
 import com.kotcrab.vis.ui.widget.VisSelectBox;
 import com.kotcrab.vis.ui.widget.VisTextArea;
 import com.kotcrab.vis.ui.widget.VisTextField;
+import io.piotrjastrzebski.bte.model.tasks.fields.EditableFields;
 import io.piotrjastrzebski.bte.model.tasks.fields.EditableFields.EditableField;
+import io.piotrjastrzebski.bte.model.tasks.fields.EditableFields.TypedEditableField;
 
 /**
  * Created by PiotrJ on 06/10/15.
@@ -55,17 +57,17 @@ class AttrFieldEdit {
 	protected static Actor createEditField (EditableField field) {
 		Class fType = field.getType();
 		if (fType == float.class) {
-			return AttrFieldEdit.floatEditField(field);
+			return AttrFieldEdit.floatEditField(EditableFields.typed(field));
 		} else if (fType == double.class) {
-			return AttrFieldEdit.doubleEditField(field);
+			return AttrFieldEdit.doubleEditField(EditableFields.typed(field));
 		} else if (fType == int.class) {
-			return AttrFieldEdit.integerEditField(field);
+			return AttrFieldEdit.integerEditField(EditableFields.typed(field));
 		} else if (fType == long.class) {
-			return AttrFieldEdit.longEditField(field);
+			return AttrFieldEdit.longEditField(EditableFields.typed(field));
 		} else if (fType == String.class) {
 			return AttrFieldEdit.stringEditField(field);
 		} else if (fType == boolean.class) {
-			return AttrFieldEdit.booleanEditField(field);
+			return AttrFieldEdit.booleanEditField(EditableFields.typed(field));
 		} else if (fType.isEnum()) {
 			return AttrFieldEdit.enumEditField(field);
 		} if (Distribution.class.isAssignableFrom(fType)) {
@@ -76,50 +78,50 @@ class AttrFieldEdit {
 		}
 	}
 
-	protected static Actor integerEditField (final EditableField field) {
+	protected static Actor integerEditField (final TypedEditableField field) {
 		return valueEditField(new IntField() {
 			@Override public int getInt () {
-				return (int)field.get();
+				return field.getInt();
 			}
 
 			@Override public void setInt (int val) {
-				field.set(val);
+				field.setInt(val);
 			}
 		});
 	}
 
-	protected static Actor longEditField (final EditableField field) {
+	protected static Actor longEditField (final TypedEditableField field) {
 		return valueEditField(new LongField() {
 			@Override public long getLong () {
-				return (long)field.get();
+				return field.getLong();
 			}
 
 			@Override public void setLong (long val) {
-				field.set(val);
+				field.setLong(val);
 			}
 		});
 	}
 
-	protected static Actor floatEditField (final EditableField field) {
+	protected static Actor floatEditField (final TypedEditableField field) {
 		return valueEditField(new FloatField() {
 			@Override public float getFloat () {
-				return (float)field.get();
+				return field.getFloat();
 			}
 
 			@Override public void setFloat (float val) {
-				field.set(val);
+				field.setFloat(val);
 			}
 		});
 	}
 
-	protected static Actor doubleEditField (final EditableField field) {
+	protected static Actor doubleEditField (final TypedEditableField field) {
 		return valueEditField(new DoubleField() {
 			@Override public double getDouble () {
-				return (double)field.get();
+				return field.getDouble();
 			}
 
 			@Override public void setDouble (double val) {
-				field.set(val);
+				field.setDouble(val);
 			}
 		});
 	}
@@ -160,14 +162,14 @@ class AttrFieldEdit {
 		return sb;
 	}
 
-	protected static Actor booleanEditField (final EditableField field) {
+	protected static Actor booleanEditField (final TypedEditableField field) {
 		final VisSelectBox<Object> sb = new VisSelectBox<>();
 		sb.setItems(true, false);
-		sb.setSelected(field.get());
+		sb.setSelected(field.getBoolean());
 		sb.addListener(new ChangeListener() {
 			@Override public void changed (ChangeEvent event, Actor actor) {
 				Object selected = sb.getSelection().getLastSelected();
-				field.set(selected);
+				field.setBoolean((Boolean)selected);
 			}
 		});
 		return sb;
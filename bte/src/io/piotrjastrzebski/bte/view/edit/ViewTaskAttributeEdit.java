@@ -19,6 +19,7 @@ public class ViewTaskAttributeEdit extends VisTable {
 	private VisLabel top;
 	private VisLabel name;
 	private VisLabel taskComment;
+	private TaskModel task;
 
 	public ViewTaskAttributeEdit () {
 		super();
@@ -31,6 +32,7 @@ public class ViewTaskAttributeEdit extends VisTable {
 
 	public void startEdit (TaskModel task) {
 		stopEdit();
+		this.task = task;
 		name.setText(task.getName());
 		String comment = task.getComment();
 		if (comment != null) {
@@ -71,6 +73,11 @@ public class ViewTaskAttributeEdit extends VisTable {
 
 	public void stopEdit () {
 		clear();
+		// fields are created when task is edited, no need to keep them around
+		if (task != null) {
+			task.releaseEditableFields();
+			task = null;
+		}
 		add(top).row();
 		add(name).row();
 		name.setText("<?>");